@@ -0,0 +1,106 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention benchmark of a single breaker shared by all benchmark threads, without any network calls.
+ * <p>
+ * Compares Failsafe's {@link CircuitBreaker} ({@code allowsExecution} and {@code recordSuccess}) with the lock-free
+ * {@link SlidingWindowCircuitBreaker} ({@code acquire} and {@code release}), once closed and once open. Rejections of
+ * the sliding window breaker include creating the {@link CallNotPermittedException}. {@link #main(String[])} runs all
+ * of them at 1, 8, 32 and 128 threads.
+ *
+ * @author chripoli
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CircuitBreakerContentionBenchmark {
+
+    /**
+     * Thread counts used by {@link #main(String[])}.
+     */
+    private static final int[] THREAD_COUNTS = {1, 8, 32, 128};
+
+    private static final String HOST = "localhost:80";
+
+    private Response ok;
+    private CircuitBreaker<Response> failsafeClosed;
+    private CircuitBreaker<Response> failsafeOpen;
+    private SlidingWindowCircuitBreaker slidingWindowClosed;
+    private SlidingWindowCircuitBreaker slidingWindowOpen;
+
+    @Setup
+    public void setup() {
+        ok = Response.ok().build();
+        failsafeClosed = new CircuitBreaker<Response>()
+                .handleResultIf((Response response) -> response.getStatus() >= 500);
+        failsafeOpen = new CircuitBreaker<Response>()
+                .withDelay(Duration.ofDays(1));
+        failsafeOpen.open();
+        slidingWindowClosed = new SlidingWindowCircuitBreaker();
+        slidingWindowOpen = new SlidingWindowCircuitBreaker()
+                .withDelay(Duration.ofDays(1));
+        slidingWindowOpen.open();
+    }
+
+    @Benchmark
+    public boolean failsafeClosed() {
+        final boolean allowed = failsafeClosed.allowsExecution();
+        if (allowed) {
+            failsafeClosed.recordSuccess();
+        }
+        return allowed;
+    }
+
+    @Benchmark
+    public AttemptGuard.Permit slidingWindowClosed() {
+        final AttemptGuard.Permit permit = slidingWindowClosed.acquire(HOST, 1);
+        permit.release(ok, null, 1_000);
+        return permit;
+    }
+
+    @Benchmark
+    public boolean failsafeOpen() {
+        return failsafeOpen.allowsExecution();
+    }
+
+    @Benchmark
+    public Object slidingWindowOpen() {
+        try {
+            return slidingWindowOpen.acquire(HOST, 1);
+        } catch (CallNotPermittedException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Runs all benchmarks of this class at each of {@link #THREAD_COUNTS}.
+     *
+     * @param args
+     *          unused
+     * @throws RunnerException
+     *          if a benchmark run failed
+     */
+    public static void main(final String[] args) throws RunnerException {
+        for (int threads : THREAD_COUNTS) {
+            final Options options = new OptionsBuilder()
+                    .include(CircuitBreakerContentionBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+import net.jodah.failsafe.Failsafe;
+import net.jodah.failsafe.RetryPolicy;
+import net.jodah.failsafe.function.CheckedSupplier;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares composing the Failsafe executor on every call with the executor cached by {@link JerseyTestClient}.
+ * The supplier returns a prebuilt response, so only the cost of the resilience layer is measured.
+ * Run with {@code -prof gc} to see the allocation per call.
+ *
+ * @author chripoli
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FailsafeExecutorCacheBenchmark {
+
+    private static final Response OK = Response.ok().build();
+    private static final CheckedSupplier<Response> SUPPLIER = () -> OK;
+
+    private JerseyTestClient client;
+    private RetryPolicy<Response> retryPolicy;
+    private CircuitBreaker<Response> circuitBreaker;
+
+    @Setup
+    public void setup() {
+        client = new JerseyTestClient();
+        retryPolicy = new RetryPolicy<Response>()
+                .handle(Exception.class)
+                .handleResultIf((Response result) -> result.getStatus() == 500)
+                .withMaxRetries(-1)
+                .withBackoff(1, 30, ChronoUnit.SECONDS);
+        circuitBreaker = new CircuitBreaker<Response>()
+                .withFailureThreshold(2, 3)
+                .handleResultIf((Response response) -> response.getStatus() == 500)
+                .withDelay(Duration.ofSeconds(10));
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+    }
+
+    /**
+     * Previous behaviour of {@code executeCall}: a new executor per call.
+     */
+    @Benchmark
+    public Response composeEveryCall() {
+        return Failsafe.with(retryPolicy, circuitBreaker).get(SUPPLIER);
+    }
+
+    /**
+     * Current behaviour of {@code executeCall}: the executor is looked up in the client's cache.
+     */
+    @Benchmark
+    public Response cachedExecutor() {
+        return client.executorFor(retryPolicy, circuitBreaker).get(SUPPLIER);
+    }
+}
@@ -0,0 +1,79 @@
+package loc.chripoli.resilience_demo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal in-process HTTP stub for the benchmarks.
+ * Unlike WireMock it does no request matching or journaling, so the measured cost is dominated by the client.
+ * <ul>
+ *     <li>{@code /ok} always answers 200 with a short body</li>
+ *     <li>{@code /fail} always answers 500</li>
+ *     <li>{@code /flaky} alternates between 500 and 200</li>
+ * </ul>
+ *
+ * @author chripoli
+ */
+public class LocalStubServer implements Closeable {
+
+    private static final byte[] BODY = "Result".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong flakyCalls = new AtomicLong();
+
+    /**
+     * Starts the stub on a free port of the loopback interface.
+     *
+     * @param threads
+     *          number of server threads
+     * @throws IOException
+     *          if the server could not be bound
+     */
+    public LocalStubServer(final int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext("/ok", exchange -> respond(exchange, 200));
+        server.createContext("/fail", exchange -> respond(exchange, 500));
+        server.createContext("/flaky", exchange -> respond(exchange, flakyCalls.getAndIncrement() % 2 == 0 ? 500 : 200));
+        server.start();
+    }
+
+    /**
+     * @param path
+     *          path of one of the stubs, e.g. {@code /ok}
+     * @return URL of the stub
+     */
+    public String url(final String path) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void respond(final HttpExchange exchange, final int status) throws IOException {
+        if (status == 200) {
+            exchange.sendResponseHeaders(status, BODY.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(BODY);
+            }
+        } else {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+import net.jodah.failsafe.CircuitBreakerOpenException;
+import net.jodah.failsafe.RetryPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of {@link JerseyTestClient#executeCall(String, RetryPolicy, CircuitBreaker)} against a {@link LocalStubServer}.
+ * <p>
+ * Covers the success path, the failure-with-retry path and the fast-fail path of an open circuit breaker, reporting
+ * throughput and sampled latency percentiles. {@link #main(String[])} runs all of them at 1, 8, 32 and 128 threads with
+ * the GC profiler; it accepts the JMH command line options, e.g. {@code -t} for a single thread count or {@code -prof}
+ * for other profilers.
+ *
+ * @author chripoli
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResilientCallBenchmark {
+
+    /**
+     * Thread counts used by {@link #main(String[])}.
+     */
+    private static final int[] THREAD_COUNTS = {1, 8, 32, 128};
+
+    private LocalStubServer stub;
+    private JerseyTestClient client;
+
+    private String okUrl;
+    private String flakyUrl;
+    private String failUrl;
+
+    private RetryPolicy<Response> retryPolicy;
+    private RetryPolicy<Response> noRetryPolicy;
+    private CircuitBreaker<Response> successBreaker;
+    private CircuitBreaker<Response> retryBreaker;
+    private CircuitBreaker<Response> openBreaker;
+
+    @Setup
+    public void setup() throws IOException {
+        stub = new LocalStubServer(16);
+        client = new JerseyTestClient(new ConnectionPoolConfig().withMaxTotal(256).withMaxPerRoute(256));
+        okUrl = stub.url("/ok");
+        flakyUrl = stub.url("/flaky");
+        failUrl = stub.url("/fail");
+
+        retryPolicy = new RetryPolicy<Response>()
+                .handle(Exception.class)
+                .handleResultIf((Response result) -> result.getStatus() == 500)
+                .withMaxRetries(10);
+        noRetryPolicy = new RetryPolicy<Response>().withMaxRetries(0);
+
+        // breakers of the success and retry path must never open, the third one is kept open
+        successBreaker = new CircuitBreaker<Response>()
+                .handleResultIf((Response response) -> response.getStatus() == 500);
+        retryBreaker = new CircuitBreaker<Response>()
+                .withFailureThreshold(Integer.MAX_VALUE);
+        openBreaker = new CircuitBreaker<Response>()
+                .handleResultIf((Response response) -> response.getStatus() == 500)
+                .withDelay(Duration.ofDays(1));
+        openBreaker.open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        stub.close();
+    }
+
+    /**
+     * Every call succeeds with the first attempt.
+     */
+    @Benchmark
+    public int success() {
+        return client.executeCall(okUrl, retryPolicy, successBreaker).getStatus();
+    }
+
+    /**
+     * Roughly every other attempt fails with 500 and is retried without delay.
+     */
+    @Benchmark
+    public int failureWithRetry() {
+        return client.executeCall(flakyUrl, retryPolicy, retryBreaker).getStatus();
+    }
+
+    /**
+     * The circuit breaker is open, calls are rejected without touching the network.
+     */
+    @Benchmark
+    public Object breakerOpenFastFail() {
+        try {
+            return client.executeCall(failUrl, noRetryPolicy, openBreaker);
+        } catch (CircuitBreakerOpenException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Runs the benchmarks with the JMH command line options. Unless given there, all benchmarks of this class are run,
+     * at each of {@link #THREAD_COUNTS} and with the GC profiler.
+     *
+     * @param args
+     *          JMH command line options, e.g. {@code -f 2 -wi 5 -prof stack}
+     * @throws CommandLineOptionException
+     *          if the command line options are invalid
+     * @throws RunnerException
+     *          if a benchmark run failed
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.getThreads().hasValue()) {
+            new Runner(options(commandLine).build()).run();
+            return;
+        }
+        for (int threads : THREAD_COUNTS) {
+            new Runner(options(commandLine).threads(threads).build()).run();
+        }
+    }
+
+    /**
+     * Adds the defaults of {@link #main(String[])} to the command line options. Includes and profilers of the builder
+     * are added to those of the command line, so they are only set if the command line has none.
+     *
+     * @param commandLine
+     *          JMH command line options
+     * @return builder of the options, with the command line as parent
+     */
+    private static ChainedOptionsBuilder options(final CommandLineOptions commandLine) {
+        final ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(ResilientCallBenchmark.class.getSimpleName());
+        }
+        if (commandLine.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,192 @@
+package loc.chripoli.resilience_demo;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limiter which discovers the capacity of the upstream from the observed latencies and errors (AIMD).
+ * <p>
+ * While attempts succeed with a latency close to the baseline, the limit grows additively by one per limit's worth of
+ * successful attempts, i.e. by about one per round trip. An attempt failing with an exception or a status of 500 and
+ * above, or taking longer than {@code latencyTolerance} times the baseline, signals congestion and cuts the limit by
+ * the backoff ratio, at most once per baseline round trip so a burst of slow responses does not collapse the limit.
+ * The baseline is a slow moving average of the latencies of all successful attempts, slow ones included, so after a
+ * lasting latency step it catches up with the new latency and the limit grows again instead of ratcheting down to the
+ * minimum.
+ * <p>
+ * Attempts beyond the current limit are rejected with a {@link ConcurrencyLimitExceededException}. Use a
+ * {@link PerHostGuard} to limit every host separately.
+ *
+ * @author chripoli
+ */
+public class AdaptiveConcurrencyLimiter implements AttemptGuard {
+
+    /**
+     * Weight of a new sample in the baseline latency.
+     */
+    private static final double BASELINE_SMOOTHING = 0.01;
+
+    private int minLimit = 1;
+    private int maxLimit = 200;
+    private double backoffRatio = 0.9;
+    private double latencyTolerance = 2.0;
+
+    private final AtomicLong limitBits;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastDecreaseNanos = new AtomicLong(System.nanoTime() - TimeUnit.DAYS.toNanos(1));
+    private final LongAdder rejectedCalls = new LongAdder();
+    private volatile double baselineNanos = -1;
+
+    private final Permit permit = this::release;
+
+    /**
+     * @param initialLimit
+     *          limit to start with
+     */
+    public AdaptiveConcurrencyLimiter(final int initialLimit) {
+        if (initialLimit < 1) {
+            throw new IllegalArgumentException("initialLimit must be >= 1");
+        }
+        this.limitBits = new AtomicLong(Double.doubleToRawLongBits(initialLimit));
+    }
+
+    /**
+     * @param minLimit
+     *          lowest limit the limiter backs off to
+     * @param maxLimit
+     *          highest limit the limiter grows to
+     * @return this limiter
+     */
+    public AdaptiveConcurrencyLimiter withLimitRange(final int minLimit, final int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Requires 1 <= minLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        return this;
+    }
+
+    /**
+     * @param backoffRatio
+     *          factor the limit is multiplied with on congestion, between 0 and 1
+     * @return this limiter
+     */
+    public AdaptiveConcurrencyLimiter withBackoffRatio(final double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * @param latencyTolerance
+     *          multiple of the baseline latency above which an attempt counts as congested
+     * @return this limiter
+     */
+    public AdaptiveConcurrencyLimiter withLatencyTolerance(final double latencyTolerance) {
+        if (latencyTolerance < 1) {
+            throw new IllegalArgumentException("latencyTolerance must be >= 1");
+        }
+        this.latencyTolerance = latencyTolerance;
+        return this;
+    }
+
+    @Override
+    public Permit acquire(final String host, final int attempt) {
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= (int) getLimit()) {
+                rejectedCalls.increment();
+                throw new ConcurrencyLimitExceededException(host, "Concurrency limit of " + (int) getLimit() + " reached");
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return permit;
+            }
+        }
+    }
+
+    /**
+     * @return current limit, fractional as it grows by fractions of one
+     */
+    public double getLimit() {
+        return Double.longBitsToDouble(limitBits.get());
+    }
+
+    /**
+     * @return number of attempts in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return number of rejected attempts
+     */
+    public long getRejectedCount() {
+        return rejectedCalls.sum();
+    }
+
+    /**
+     * @return baseline latency in nanoseconds, negative until the first successful attempt
+     */
+    public double getBaselineNanos() {
+        return baselineNanos;
+    }
+
+    private void release(final Response response, final Throwable failure, final long latencyNanos) {
+        final int inFlightBefore = inFlight.getAndDecrement();
+        if (failure instanceof AttemptRejectedException) {
+            // rejected by another guard, the upstream has not been called
+            return;
+        }
+        final double baseline = baselineNanos;
+        if (failure != null || response.getStatus() >= 500) {
+            decrease(baseline);
+            return;
+        }
+        // benign race: a lost update only delays the baseline by one sample
+        baselineNanos = baseline < 0 ? latencyNanos : baseline + BASELINE_SMOOTHING * (latencyNanos - baseline);
+        if (baseline > 0 && latencyNanos > latencyTolerance * baseline) {
+            decrease(baseline);
+        } else {
+            increase(inFlightBefore);
+        }
+    }
+
+    private void increase(final int inFlightBefore) {
+        while (true) {
+            final long bits = limitBits.get();
+            final double limit = Double.longBitsToDouble(bits);
+            // grow only if the limit is actually used, otherwise it would drift upwards without being tested
+            if (inFlightBefore * 2 < limit || limit >= maxLimit) {
+                return;
+            }
+            final double increased = Math.min(maxLimit, limit + 1 / limit);
+            if (limitBits.compareAndSet(bits, Double.doubleToRawLongBits(increased))) {
+                return;
+            }
+        }
+    }
+
+    private void decrease(final double baseline) {
+        final long now = System.nanoTime();
+        final long last = lastDecreaseNanos.get();
+        if (baseline > 0 && now - last < baseline) {
+            return;
+        }
+        if (!lastDecreaseNanos.compareAndSet(last, now)) {
+            return;
+        }
+        while (true) {
+            final long bits = limitBits.get();
+            final double decreased = Math.max(minLimit, Double.longBitsToDouble(bits) * backoffRatio);
+            if (limitBits.compareAndSet(bits, Double.doubleToRawLongBits(decreased))) {
+                return;
+            }
+        }
+    }
+}
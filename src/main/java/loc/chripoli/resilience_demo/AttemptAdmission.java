@@ -0,0 +1,167 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.AbstractExecution;
+import net.jodah.failsafe.AsyncExecution;
+import net.jodah.failsafe.CircuitBreaker;
+import net.jodah.failsafe.CircuitBreakerOpenException;
+import net.jodah.failsafe.ExecutionResult;
+import net.jodah.failsafe.FailsafeFuture;
+import net.jodah.failsafe.Policy;
+import net.jodah.failsafe.PolicyExecutor;
+import net.jodah.failsafe.util.concurrent.Scheduler;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Failsafe policy admitting every attempt of a single call through the {@link AttemptGuard}s of the client.
+ * <p>
+ * The policy is composed right outside the circuit breaker of the call, so a rejected attempt fails before the breaker
+ * admits it: the retry policy sees the {@link AttemptRejectedException} like any other failure, but the breaker does
+ * not record it, as the upstream was never asked. The guards are only asked once the breaker allows the execution; if
+ * the breaker still rejects the admitted attempt, the permits are released as rejected.
+ * <p>
+ * Asynchronous attempts are admitted on a worker thread of the client's timer, which must not be blocked: they are
+ * admitted with {@link AttemptGuard#acquireNow(String, int)}, so guards which would wait reject them instead.
+ *
+ * @author chripoli
+ */
+final class AttemptAdmission implements Policy<Response> {
+
+    private final AttemptGuard[] guards;
+    private final String host;
+    private final CircuitBreaker<Response> circuitBreaker;
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    /**
+     * @param guards
+     *          guards to pass, in the order of their registration
+     * @param host
+     *          target of the call as {@code host:port}
+     * @param circuitBreaker
+     *          circuit breaker composed right inside this policy
+     */
+    AttemptAdmission(final AttemptGuard[] guards, final String host, final CircuitBreaker<Response> circuitBreaker) {
+        this.guards = guards;
+        this.host = host;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public PolicyExecutor<Policy<Response>> toExecutor(final AbstractExecution execution) {
+        return new AdmissionExecutor(this, execution);
+    }
+
+    /**
+     * Acquires a permit of every guard. If one of them rejects, the permits acquired so far are released.
+     *
+     * @param guards
+     *          guards to pass
+     * @param host
+     *          target of the attempt
+     * @param attempt
+     *          number of the attempt
+     * @param wait
+     *          whether the guards may wait for admission, {@code false} on threads which must not block
+     * @return permits in the order of the guards
+     * @throws InterruptedException
+     *          if interrupted while waiting for admission
+     */
+    static AttemptGuard.Permit[] acquirePermits(final AttemptGuard[] guards, final String host, final int attempt,
+                                                final boolean wait) throws InterruptedException {
+        final AttemptGuard.Permit[] permits = new AttemptGuard.Permit[guards.length];
+        for (int i = 0; i < guards.length; i++) {
+            try {
+                permits[i] = wait ? guards[i].acquire(host, attempt) : guards[i].acquireNow(host, attempt);
+            } catch (InterruptedException | RuntimeException e) {
+                releasePermits(permits, i, null, e, 0);
+                throw e;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Releases the first {@code count} permits in reverse order.
+     *
+     * @param permits
+     *          acquired permits
+     * @param count
+     *          number of permits to release
+     * @param response
+     *          response of the attempt, {@code null} if it failed
+     * @param failure
+     *          exception of the attempt, {@code null} if there is a response
+     * @param latencyNanos
+     *          duration of the attempt in nanoseconds
+     */
+    static void releasePermits(final AttemptGuard.Permit[] permits, final int count, final Response response,
+                               final Throwable failure, final long latencyNanos) {
+        for (int i = count - 1; i >= 0; i--) {
+            permits[i].release(response, failure, latencyNanos);
+        }
+    }
+
+    /**
+     * Executor of the policy for one execution. Failsafe runs the attempts of an execution one after another, so the
+     * permits of the current attempt are kept in a plain field.
+     */
+    private static final class AdmissionExecutor extends PolicyExecutor<Policy<Response>> {
+
+        private final AttemptAdmission admission;
+        private final boolean wait;
+        private AttemptGuard.Permit[] permits;
+        private long startNanos;
+
+        private AdmissionExecutor(final AttemptAdmission admission, final AbstractExecution execution) {
+            super(admission, execution);
+            this.admission = admission;
+            this.wait = !(execution instanceof AsyncExecution);
+        }
+
+        @Override
+        protected ExecutionResult preExecute() {
+            permits = null;
+            if (!admission.circuitBreaker.allowsExecution()) {
+                // the breaker rejects the attempt anyway, without asking the guards
+                return null;
+            }
+            try {
+                permits = acquirePermits(admission.guards, admission.host, admission.attempts.incrementAndGet(), wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ExecutionResult.failure(e);
+            } catch (RuntimeException e) {
+                return ExecutionResult.failure(e);
+            }
+            startNanos = System.nanoTime();
+            return null;
+        }
+
+        @Override
+        protected ExecutionResult postExecute(final ExecutionResult result) {
+            release(result);
+            return super.postExecute(result);
+        }
+
+        @Override
+        protected CompletableFuture<ExecutionResult> postExecuteAsync(final ExecutionResult result, final Scheduler scheduler,
+                                                                     final FailsafeFuture<Object> future) {
+            release(result);
+            return super.postExecuteAsync(result, scheduler, future);
+        }
+
+        private void release(final ExecutionResult result) {
+            if (permits == null) {
+                return;
+            }
+            Throwable failure = result.getFailure();
+            if (failure instanceof CircuitBreakerOpenException) {
+                failure = new AttemptRejectedException(admission.host, "Circuit breaker rejected the admitted attempt");
+            }
+            releasePermits(permits, permits.length, (Response) result.getResult(), failure, System.nanoTime() - startNanos);
+            permits = null;
+        }
+    }
+}
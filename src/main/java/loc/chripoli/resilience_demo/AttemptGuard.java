@@ -0,0 +1,69 @@
+package loc.chripoli.resilience_demo;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * Guard which admits or rejects every single attempt of a call made by {@link JerseyTestClient}.
+ * <p>
+ * Guards run inside the Failsafe executor, i.e. once per attempt including retries, between the {@code RetryPolicy}
+ * and the {@code CircuitBreaker} of the call: a rejection fails the attempt with an {@link AttemptRejectedException},
+ * which the retry policy handles like any other failure, while the breaker never sees the attempt. Guards are only
+ * asked once the breaker allows the attempt.
+ *
+ * @author chripoli
+ * @see JerseyTestClient#withGuard(AttemptGuard)
+ */
+public interface AttemptGuard {
+
+    /**
+     * Admits an attempt or rejects it.
+     *
+     * @param host
+     *          target of the attempt as {@code host:port}
+     * @param attempt
+     *          number of the attempt within its call, starting with 1
+     * @return permit which has to be released once the attempt completed
+     * @throws AttemptRejectedException
+     *          if the attempt is not admitted
+     * @throws InterruptedException
+     *          if the caller was interrupted while waiting for admission
+     */
+    Permit acquire(String host, int attempt) throws InterruptedException;
+
+    /**
+     * Admits an attempt or rejects it without waiting. Asynchronous attempts are admitted on the few worker threads of
+     * the client's timer, so a guard which may wait in {@link #acquire(String, int)} has to override this method and
+     * reject instead. By default, it delegates to {@link #acquire(String, int)}.
+     *
+     * @param host
+     *          target of the attempt as {@code host:port}
+     * @param attempt
+     *          number of the attempt within its call, starting with 1
+     * @return permit which has to be released once the attempt completed
+     * @throws AttemptRejectedException
+     *          if the attempt is not admitted right now
+     * @throws InterruptedException
+     *          if the caller was interrupted
+     */
+    default Permit acquireNow(final String host, final int attempt) throws InterruptedException {
+        return acquire(host, attempt);
+    }
+
+    /**
+     * Admission of a single attempt.
+     */
+    interface Permit {
+
+        /**
+         * Releases the permit with the outcome of the attempt.
+         *
+         * @param response
+         *          response of the attempt, {@code null} if it failed with an exception
+         * @param failure
+         *          exception of the attempt, {@code null} if there is a response
+         * @param latencyNanos
+         *          duration of the attempt in nanoseconds
+         */
+        void release(Response response, Throwable failure, long latencyNanos);
+    }
+}
@@ -0,0 +1,32 @@
+package loc.chripoli.resilience_demo;
+
+/**
+ * Thrown if an {@link AttemptGuard} does not admit an attempt.
+ * The request has not been sent.
+ *
+ * @author chripoli
+ */
+public class AttemptRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+
+    /**
+     * @param host
+     *          target of the rejected attempt
+     * @param message
+     *          reason of the rejection
+     */
+    public AttemptRejectedException(final String host, final String message) {
+        super(message + " (" + host + ")");
+        this.host = host;
+    }
+
+    /**
+     * @return target of the rejected attempt as {@code host:port}
+     */
+    public String getHost() {
+        return host;
+    }
+}
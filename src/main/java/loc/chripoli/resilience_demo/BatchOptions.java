@@ -0,0 +1,83 @@
+package loc.chripoli.resilience_demo;
+
+import java.time.Duration;
+
+/**
+ * Configuration of a batch of resilient calls, see {@link JerseyTestClient#executeCalls}.
+ *
+ * @author chripoli
+ */
+public class BatchOptions {
+
+    private int parallelism = 16;
+    private Duration timeout;
+    private CallOptions callOptions = new CallOptions();
+
+    /**
+     * Sets the maximum number of calls of the batch in flight at the same time, including their retry delays.
+     *
+     * @param parallelism
+     *          maximum number of concurrent calls
+     * @return these options
+     */
+    public BatchOptions withParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Sets the maximum duration of the whole batch. Calls still running when it passes time out, calls not started yet
+     * are not started anymore.
+     *
+     * @param timeout
+     *          overall timeout, starting when the batch is started
+     * @return these options
+     */
+    public BatchOptions withTimeout(final Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("timeout must be > 0");
+        }
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * Sets the timeouts of every single call.
+     *
+     * @param callOptions
+     *          options of the calls
+     * @return these options
+     */
+    public BatchOptions withCallOptions(final CallOptions callOptions) {
+        if (callOptions == null) {
+            throw new IllegalArgumentException("callOptions must not be null");
+        }
+        this.callOptions = callOptions;
+        return this;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return overall timeout, {@code null} if the batch is not bounded
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public CallOptions getCallOptions() {
+        return callOptions;
+    }
+
+    /**
+     * @return deadline of a batch starting now, {@code null} if there is no overall timeout
+     */
+    Deadline newDeadline() {
+        return timeout == null ? null : Deadline.after(timeout);
+    }
+}
@@ -0,0 +1,448 @@
+package loc.chripoli.resilience_demo;
+
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.message.MessageBodyWorkers;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.AbstractMultivaluedMap;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ReaderInterceptor;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Response detached from its connection, holding status, headers and entity in memory.
+ * <p>
+ * Jersey's inbound responses are bound to the request that produced them and must not be read by several threads.
+ * A buffered response is built once from such a response and then handed out as independent {@link #copy()}s, which
+ * share the entity bytes but have their own headers and closed state. The entity can be read repeatedly as
+ * {@code byte[]}, {@link String}, {@link InputStream} or {@link Reader}. Other types, e.g. JSON mapped to a POJO, need
+ * the message body readers of the client: responses buffered by {@link JerseyTestClient} keep them, and so do their
+ * copies, while other buffered responses reject such types.
+ * <p>
+ * A response served from a cache after it went stale is marked by {@link #isStale()} and a
+ * {@code Warning: 110 - "Response is Stale"} header.
+ *
+ * @author chripoli
+ */
+public class BufferedResponse extends Response {
+
+    private static final byte[] NO_ENTITY = new byte[0];
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+    private static final String WARNING = "Warning";
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+    private final StatusType statusInfo;
+    private final MultivaluedMap<String, String> headers;
+    private final byte[] entity;
+    private final boolean stale;
+    private final MessageBodyWorkers workers;
+    private final Iterable<ReaderInterceptor> readerInterceptors;
+    private boolean closed;
+
+    private BufferedResponse(final StatusType statusInfo, final MultivaluedMap<String, String> headers, final byte[] entity,
+                             final boolean stale, final MessageBodyWorkers workers, final Iterable<ReaderInterceptor> readerInterceptors) {
+        this.statusInfo = statusInfo;
+        this.headers = headers;
+        this.entity = entity;
+        this.stale = stale;
+        this.workers = workers;
+        this.readerInterceptors = readerInterceptors;
+    }
+
+    /**
+     * Reads status, headers and entity of the given response and closes it.
+     *
+     * @param response
+     *          response to buffer, typically an inbound response of the Jersey client; outbound responses built with
+     *          {@link Response#ok(Object)} and the like are supported if their entity is a {@code byte[]} or
+     *          {@link String}
+     * @return buffered response
+     */
+    public static BufferedResponse of(final Response response) {
+        return of(response, null, null);
+    }
+
+    /**
+     * Reads status, headers and entity of the given response and closes it, keeping the message body readers of the
+     * client to read the entity as other types than the basic ones.
+     *
+     * @param response
+     *          response to buffer, see {@link #of(Response)}
+     * @param workers
+     *          message body readers and writers of the client, {@code null} for none
+     * @param readerInterceptors
+     *          reader interceptors of the client, {@code null} for none
+     * @return buffered response
+     */
+    static BufferedResponse of(final Response response, final MessageBodyWorkers workers, final Iterable<ReaderInterceptor> readerInterceptors) {
+        if (response instanceof BufferedResponse) {
+            return ((BufferedResponse) response).copy();
+        }
+        final StatusType statusInfo = response.getStatusInfo();
+        final MultivaluedMap<String, String> headers = copyOf(response.getStringHeaders());
+        byte[] entity;
+        try {
+            entity = response.hasEntity() ? response.readEntity(byte[].class) : null;
+        } catch (IllegalStateException e) {
+            // closed, as responses without an entity are closed to release their connection, or outbound
+            entity = outboundEntity(response, charsetOf(headers));
+        } finally {
+            response.close();
+        }
+        return new BufferedResponse(statusInfo, headers, entity, false, workers,
+                readerInterceptors == null ? Collections.<ReaderInterceptor>emptyList() : readerInterceptors);
+    }
+
+    /**
+     * @return independent copy of this response, sharing the immutable entity bytes
+     */
+    public BufferedResponse copy() {
+        return new BufferedResponse(statusInfo, copyOf(headers), entity, stale, workers, readerInterceptors);
+    }
+
+    /**
+     * @return copy of this response marked as stale
+     */
+    BufferedResponse asStale() {
+        final MultivaluedMap<String, String> staleHeaders = copyOf(headers);
+        staleHeaders.add(WARNING, STALE_WARNING);
+        return new BufferedResponse(statusInfo, staleHeaders, entity, true, workers, readerInterceptors);
+    }
+
+    /**
+     * @return {@code true} if this response was served from a cache although it was no longer fresh
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * @return approximate memory footprint of entity and headers in bytes
+     */
+    long weight() {
+        long weight = entity == null ? 0 : entity.length;
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            for (String value : header.getValue()) {
+                weight += header.getKey().length() + value.length();
+            }
+        }
+        return weight;
+    }
+
+    @Override
+    public int getStatus() {
+        return statusInfo.getStatusCode();
+    }
+
+    @Override
+    public StatusType getStatusInfo() {
+        return statusInfo;
+    }
+
+    /**
+     * Like for all inbound responses, the entity is only available through {@code readEntity}.
+     *
+     * @throws IllegalStateException
+     *          always
+     */
+    @Override
+    public Object getEntity() {
+        throw new IllegalStateException("Entity of an inbound response is only available via readEntity");
+    }
+
+    @Override
+    public <T> T readEntity(final Class<T> entityType) {
+        return readEntity(entityType, entityType, NO_ANNOTATIONS);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T readEntity(final GenericType<T> entityType) {
+        return (T) readEntity(entityType.getRawType(), entityType.getType(), NO_ANNOTATIONS);
+    }
+
+    @Override
+    public <T> T readEntity(final Class<T> entityType, final Annotation[] annotations) {
+        return readEntity(entityType, entityType, annotations);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T readEntity(final GenericType<T> entityType, final Annotation[] annotations) {
+        return (T) readEntity(entityType.getRawType(), entityType.getType(), annotations);
+    }
+
+    /**
+     * Reads the entity as one of the basic types, or with the message body readers of the client otherwise.
+     *
+     * @param rawType
+     *          class to read the entity as
+     * @param genericType
+     *          generic type to read the entity as
+     * @param annotations
+     *          annotations passed to the message body reader
+     * @return entity as the given type
+     */
+    private <T> T readEntity(final Class<T> rawType, final Type genericType, final Annotation[] annotations) {
+        ensureOpen();
+        final byte[] bytes = entity == null ? NO_ENTITY : entity;
+        final Object value;
+        if (rawType == byte[].class) {
+            value = bytes.clone();
+        } else if (rawType == String.class) {
+            value = new String(bytes, charset());
+        } else if (rawType == InputStream.class) {
+            value = new ByteArrayInputStream(bytes);
+        } else if (rawType == Reader.class) {
+            value = new InputStreamReader(new ByteArrayInputStream(bytes), charset());
+        } else if (workers != null) {
+            final MediaType mediaType = getMediaType();
+            try {
+                value = workers.readFrom(rawType, genericType, annotations, mediaType == null ? MediaType.APPLICATION_OCTET_STREAM_TYPE : mediaType,
+                        copyOf(headers), new MapPropertiesDelegate(), new ByteArrayInputStream(bytes), readerInterceptors, false);
+            } catch (IOException e) {
+                throw new ProcessingException("Buffered entity cannot be read as " + rawType.getName(), e);
+            }
+        } else {
+            throw new ProcessingException("Buffered entity cannot be read as " + rawType.getName());
+        }
+        return rawType.cast(value);
+    }
+
+    @Override
+    public boolean hasEntity() {
+        ensureOpen();
+        return entity != null && entity.length > 0;
+    }
+
+    /**
+     * @return {@code true} if there is an entity, which is always buffered
+     */
+    @Override
+    public boolean bufferEntity() {
+        return hasEntity();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public MediaType getMediaType() {
+        final String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+        return contentType == null ? null : MediaType.valueOf(contentType);
+    }
+
+    @Override
+    public Locale getLanguage() {
+        final String language = headers.getFirst(HttpHeaders.CONTENT_LANGUAGE);
+        return language == null ? null : Locale.forLanguageTag(language);
+    }
+
+    @Override
+    public int getLength() {
+        final String length = headers.getFirst(HttpHeaders.CONTENT_LENGTH);
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(length.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public Set<String> getAllowedMethods() {
+        final Set<String> methods = new HashSet<>();
+        for (String allow : headers.getOrDefault(HttpHeaders.ALLOW, new ArrayList<>())) {
+            for (String method : allow.split(",")) {
+                if (!method.trim().isEmpty()) {
+                    methods.add(method.trim().toUpperCase(Locale.ROOT));
+                }
+            }
+        }
+        return methods;
+    }
+
+    @Override
+    public Map<String, NewCookie> getCookies() {
+        final Map<String, NewCookie> cookies = new HashMap<>();
+        for (String cookie : headers.getOrDefault(HttpHeaders.SET_COOKIE, new ArrayList<>())) {
+            final NewCookie parsed = NewCookie.valueOf(cookie);
+            cookies.put(parsed.getName(), parsed);
+        }
+        return cookies;
+    }
+
+    @Override
+    public EntityTag getEntityTag() {
+        final String tag = headers.getFirst(HttpHeaders.ETAG);
+        return tag == null ? null : EntityTag.valueOf(tag);
+    }
+
+    @Override
+    public Date getDate() {
+        return parseHttpDate(headers.getFirst(HttpHeaders.DATE));
+    }
+
+    @Override
+    public Date getLastModified() {
+        return parseHttpDate(headers.getFirst(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Override
+    public URI getLocation() {
+        final String location = headers.getFirst(HttpHeaders.LOCATION);
+        return location == null ? null : URI.create(location);
+    }
+
+    @Override
+    public Set<Link> getLinks() {
+        final Set<Link> links = new HashSet<>();
+        for (String link : headers.getOrDefault(HttpHeaders.LINK, new ArrayList<>())) {
+            links.add(Link.valueOf(link));
+        }
+        return links;
+    }
+
+    @Override
+    public boolean hasLink(final String relation) {
+        return getLink(relation) != null;
+    }
+
+    @Override
+    public Link getLink(final String relation) {
+        for (Link link : getLinks()) {
+            if (link.getRels().contains(relation)) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Link.Builder getLinkBuilder(final String relation) {
+        final Link link = getLink(relation);
+        return link == null ? null : Link.fromLink(link);
+    }
+
+    /**
+     * @return copy of the headers, changes are not reflected in this response
+     */
+    @Override
+    public MultivaluedMap<String, Object> getMetadata() {
+        final MultivaluedMap<String, Object> metadata = new AbstractMultivaluedMap<String, Object>(new TreeMap<>(String.CASE_INSENSITIVE_ORDER)) { };
+        headers.forEach((name, values) -> metadata.put(name, new ArrayList<>(values)));
+        return metadata;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getStringHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String getHeaderString(final String name) {
+        final List<String> values = headers.get(name);
+        return values == null ? null : String.join(",", values);
+    }
+
+    /**
+     * Parses a date in the format of HTTP headers (RFC 1123).
+     *
+     * @param value
+     *          header value, may be {@code null}
+     * @return parsed date, {@code null} if there is none or it is malformed
+     */
+    static Date parseHttpDate(final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Date.from(ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return entity of an outbound response as bytes, {@code null} if there is none
+     */
+    private static byte[] outboundEntity(final Response response, final Charset charset) {
+        final Object entity;
+        try {
+            entity = response.getEntity();
+        } catch (IllegalStateException e) {
+            return null;
+        }
+        if (entity == null) {
+            return null;
+        }
+        if (entity instanceof byte[]) {
+            return ((byte[]) entity).clone();
+        }
+        if (entity instanceof String) {
+            return ((String) entity).getBytes(charset);
+        }
+        throw new ProcessingException("Entity of type " + entity.getClass().getName() + " cannot be buffered");
+    }
+
+    private Charset charset() {
+        return charsetOf(headers);
+    }
+
+    /**
+     * @return charset of the content type, UTF-8 if there is none
+     */
+    private static Charset charsetOf(final MultivaluedMap<String, String> headers) {
+        final String contentType = headers.getFirst(HttpHeaders.CONTENT_TYPE);
+        final String charset = contentType == null ? null : MediaType.valueOf(contentType).getParameters().get(MediaType.CHARSET_PARAMETER);
+        return charset == null ? StandardCharsets.UTF_8 : Charset.forName(charset);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Response has been closed");
+        }
+    }
+
+    /**
+     * @return mutable copy of the headers with case-insensitive names
+     */
+    private static MultivaluedMap<String, String> copyOf(final MultivaluedMap<String, String> headers) {
+        final MultivaluedMap<String, String> copy = new AbstractMultivaluedMap<String, String>(new TreeMap<>(String.CASE_INSENSITIVE_ORDER)) { };
+        headers.forEach((name, values) -> copy.put(name, new ArrayList<>(values)));
+        return copy;
+    }
+}
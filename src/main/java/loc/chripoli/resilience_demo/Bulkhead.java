@@ -0,0 +1,159 @@
+package loc.chripoli.resilience_demo;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulkhead which bounds the number of concurrent attempts.
+ * <p>
+ * By default an attempt without a free slot is rejected immediately with a {@link BulkheadFullException}. With
+ * {@link #withMaxWait(Duration, int)} a bounded number of attempts may wait for a slot up to a timeout instead;
+ * asynchronous attempts never wait, see {@link #acquireNow(String, int)}. Use a {@link PerHostGuard} to bound the
+ * attempts per target host.
+ *
+ * @author chripoli
+ */
+public class Bulkhead implements AttemptGuard {
+
+    private final int maxConcurrentCalls;
+    private final Semaphore slots;
+    private final Permit permit;
+
+    private long maxWaitNanos;
+    private int maxWaitingCalls;
+
+    private final AtomicInteger waitingCalls = new AtomicInteger();
+    private final LongAdder admittedCalls = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+    private final LongAdder totalQueueTimeNanos = new LongAdder();
+    private final AtomicLong maxQueueTimeNanos = new AtomicLong();
+
+    /**
+     * @param maxConcurrentCalls
+     *          maximum number of attempts in flight
+     */
+    public Bulkhead(final int maxConcurrentCalls) {
+        if (maxConcurrentCalls < 1) {
+            throw new IllegalArgumentException("maxConcurrentCalls must be >= 1");
+        }
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.slots = new Semaphore(maxConcurrentCalls, true);
+        this.permit = (response, failure, latencyNanos) -> slots.release();
+    }
+
+    /**
+     * Lets attempts wait for a free slot instead of rejecting them immediately.
+     *
+     * @param maxWait
+     *          maximum time to wait for a slot
+     * @param maxWaitingCalls
+     *          maximum number of waiting attempts, further attempts are rejected immediately
+     * @return this bulkhead
+     */
+    public Bulkhead withMaxWait(final Duration maxWait, final int maxWaitingCalls) {
+        if (maxWait == null || maxWait.isNegative()) {
+            throw new IllegalArgumentException("maxWait must be >= 0");
+        }
+        if (maxWaitingCalls < 0) {
+            throw new IllegalArgumentException("maxWaitingCalls must be >= 0");
+        }
+        this.maxWaitNanos = maxWait.toNanos();
+        this.maxWaitingCalls = maxWaitingCalls;
+        return this;
+    }
+
+    @Override
+    public Permit acquire(final String host, final int attempt) throws InterruptedException {
+        if (maxWaitNanos == 0 || maxWaitingCalls == 0) {
+            return acquireNow(host, attempt);
+        }
+        if (slots.tryAcquire()) {
+            admittedCalls.increment();
+            return permit;
+        }
+        if (waitingCalls.incrementAndGet() > maxWaitingCalls) {
+            waitingCalls.decrementAndGet();
+            rejectedCalls.increment();
+            throw new BulkheadFullException(host, "Wait queue of " + maxWaitingCalls + " calls is full");
+        }
+
+        final long startNanos = System.nanoTime();
+        final boolean acquired;
+        try {
+            acquired = slots.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } finally {
+            waitingCalls.decrementAndGet();
+            recordQueueTime(System.nanoTime() - startNanos);
+        }
+        if (!acquired) {
+            rejectedCalls.increment();
+            throw new BulkheadFullException(host, "No free slot within " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms");
+        }
+        admittedCalls.increment();
+        return permit;
+    }
+
+    @Override
+    public Permit acquireNow(final String host, final int attempt) {
+        if (!slots.tryAcquire()) {
+            rejectedCalls.increment();
+            throw new BulkheadFullException(host, "Bulkhead of " + maxConcurrentCalls + " concurrent calls is full");
+        }
+        admittedCalls.increment();
+        return permit;
+    }
+
+    /**
+     * @return number of attempts currently in flight
+     */
+    public int getConcurrentCalls() {
+        return maxConcurrentCalls - slots.availablePermits();
+    }
+
+    /**
+     * @return number of attempts currently waiting for a slot
+     */
+    public int getWaitingCalls() {
+        return waitingCalls.get();
+    }
+
+    /**
+     * @return number of admitted attempts
+     */
+    public long getAdmittedCount() {
+        return admittedCalls.sum();
+    }
+
+    /**
+     * @return number of rejected attempts
+     */
+    public long getRejectedCount() {
+        return rejectedCalls.sum();
+    }
+
+    /**
+     * @return total time attempts spent waiting for a slot in nanoseconds
+     */
+    public long getTotalQueueTimeNanos() {
+        return totalQueueTimeNanos.sum();
+    }
+
+    /**
+     * @return longest time a single attempt waited for a slot in nanoseconds
+     */
+    public long getMaxQueueTimeNanos() {
+        return maxQueueTimeNanos.get();
+    }
+
+    private void recordQueueTime(final long nanos) {
+        totalQueueTimeNanos.add(nanos);
+        long max = maxQueueTimeNanos.get();
+        while (nanos > max && !maxQueueTimeNanos.compareAndSet(max, nanos)) {
+            max = maxQueueTimeNanos.get();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package loc.chripoli.resilience_demo;
+
+/**
+ * Thrown if a {@link Bulkhead} has no free slot and its wait queue is full or the wait timed out.
+ *
+ * @author chripoli
+ */
+public class BulkheadFullException extends AttemptRejectedException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param host
+     *          target of the rejected attempt
+     * @param message
+     *          reason of the rejection
+     */
+    public BulkheadFullException(final String host, final String message) {
+        super(host, message);
+    }
+}
@@ -0,0 +1,203 @@
+package loc.chripoli.resilience_demo;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Running batch of resilient calls, yielding one {@link CallResult} per URL in the order the calls complete.
+ * <p>
+ * At most {@code parallelism} calls are in flight at a time; whenever one completes, the next URL is started from the
+ * thread completing it, so the batch does not occupy a thread of its own. Once the deadline of the batch passes, the
+ * URLs not started yet are reported as {@link CallResult.Outcome#TIMEOUT} right away, while the calls in flight time
+ * out by their own deadline.
+ * <p>
+ * The batch is consumed like an iterator, {@link #next()} waiting for the next completed call. Consuming is not
+ * thread-safe; starting and completing calls is.
+ *
+ * @author chripoli
+ * @see JerseyTestClient#executeCalls
+ */
+public class CallBatch implements Iterator<CallResult> {
+
+    private final Iterator<String> urls;
+    private final int size;
+    private final Deadline deadline;
+    private final Function<String, CompletableFuture<Response>> call;
+    private final BlockingQueue<CallResult> results = new LinkedBlockingQueue<>();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final AtomicInteger freeSlots;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger drainRequests = new AtomicInteger();
+    private volatile boolean expired;
+    private int consumed;
+
+    /**
+     * @param urls
+     *          URLs to call, copied
+     * @param parallelism
+     *          maximum number of calls in flight
+     * @param deadline
+     *          deadline of the batch, {@code null} if there is none
+     * @param call
+     *          starts the resilient call of a URL
+     */
+    CallBatch(final Collection<String> urls, final int parallelism, final Deadline deadline, final Function<String, CompletableFuture<Response>> call) {
+        final List<String> copy = new ArrayList<>(urls);
+        this.urls = copy.iterator();
+        this.size = copy.size();
+        this.deadline = deadline;
+        this.call = call;
+        this.freeSlots = new AtomicInteger(parallelism);
+        if (size == 0) {
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Starts the first calls.
+     */
+    void start() {
+        drain();
+    }
+
+    /**
+     * Reports all URLs not started yet as timed out, called once the deadline has passed.
+     */
+    void expire() {
+        expired = true;
+        drain();
+    }
+
+    /**
+     * @return future completed once all results are available
+     */
+    CompletableFuture<Void> whenDone() {
+        return done;
+    }
+
+    /**
+     * @return number of URLs in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of calls completed so far, including those not started before the deadline
+     */
+    public int getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return {@code true} if there are results left to consume
+     */
+    @Override
+    public boolean hasNext() {
+        return consumed < size;
+    }
+
+    /**
+     * Waits for the next call to complete.
+     *
+     * @return result of the next completed call
+     * @throws NoSuchElementException
+     *          if all results have been consumed
+     * @throws IllegalStateException
+     *          if interrupted while waiting, with the interrupt flag restored
+     */
+    @Override
+    public CallResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            final CallResult result = results.take();
+            consumed++;
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the next result", e);
+        }
+    }
+
+    /**
+     * Waits for the next call to complete, at most for the given time.
+     *
+     * @param timeout
+     *          maximum time to wait
+     * @param unit
+     *          unit of the timeout
+     * @return result of the next completed call, {@code null} if none completed in time
+     * @throws NoSuchElementException
+     *          if all results have been consumed
+     * @throws InterruptedException
+     *          if interrupted while waiting
+     */
+    public CallResult next(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final CallResult result = results.poll(timeout, unit);
+        if (result != null) {
+            consumed++;
+        }
+        return result;
+    }
+
+    /**
+     * Starts calls while there are free slots, or reports the remaining URLs as timed out once the deadline passed.
+     * Only one thread drains at a time; a thread finding another one draining leaves it another round, so calls
+     * completing synchronously do not recurse.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            if (expired || deadline != null && deadline.isExpired()) {
+                while (urls.hasNext()) {
+                    complete(CallResult.notStarted(urls.next()));
+                }
+            } else {
+                while (urls.hasNext() && freeSlots.get() > 0) {
+                    freeSlots.decrementAndGet();
+                    launch(urls.next());
+                }
+            }
+        } while (drainRequests.decrementAndGet() != 0);
+    }
+
+    private void launch(final String url) {
+        final long startNanos = System.nanoTime();
+        CompletableFuture<Response> future;
+        try {
+            future = call.apply(url);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((response, failure) -> {
+            complete(CallResult.of(url, response, failure, System.nanoTime() - startNanos));
+            freeSlots.incrementAndGet();
+            drain();
+        });
+    }
+
+    private void complete(final CallResult result) {
+        results.add(result);
+        if (completed.incrementAndGet() == size) {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package loc.chripoli.resilience_demo;
+
+/**
+ * Thrown if a {@link SlidingWindowCircuitBreaker} is open, or half-open without a free trial permit.
+ *
+ * @author chripoli
+ */
+public class CallNotPermittedException extends AttemptRejectedException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param host
+     *          target of the rejected attempt
+     * @param message
+     *          reason of the rejection
+     */
+    public CallNotPermittedException(final String host, final String message) {
+        super(host, message);
+    }
+}
@@ -0,0 +1,157 @@
+package loc.chripoli.resilience_demo;
+
+import java.time.Duration;
+
+/**
+ * Timeouts of a resilient call of a {@link JerseyTestClient}.
+ * <p>
+ * The attempt timeout bounds every single attempt: it becomes the connect and socket read timeout of the request, so
+ * a hung upstream no longer blocks the connection, and a Failsafe timeout inside the circuit breaker, so a timed out
+ * attempt counts as a failure and is retried like any other. The overall timeout is turned into a {@link Deadline}
+ * when the call starts and bounds all attempts and backoff delays together: retries are not scheduled beyond it, and
+ * the socket timeouts of later attempts shrink to the time left. A deadline inherited from the caller of a service
+ * ends the call at the latest, even if the own timeout would allow more time.
+ * <p>
+ * Every attempt of a call with a deadline propagates the time left in the {@value Deadline#HEADER} header, so the
+ * upstream can stop working on requests the client has given up on. This can be switched off for upstreams which
+ * should not learn about it.
+ * <p>
+ * Options are meant to be created once and shared by all calls with the same timeouts; options with an inherited
+ * deadline belong to a single incoming request.
+ *
+ * @author chripoli
+ */
+public class CallOptions {
+
+    private Duration attemptTimeout;
+    private Duration connectTimeout;
+    private Duration timeout;
+    private Deadline deadline;
+    private boolean propagateDeadline = true;
+
+    /**
+     * Sets the maximum duration of a single attempt.
+     *
+     * @param attemptTimeout
+     *          timeout per attempt
+     * @return these options
+     */
+    public CallOptions withAttemptTimeout(final Duration attemptTimeout) {
+        this.attemptTimeout = requirePositive(attemptTimeout, "attemptTimeout");
+        return this;
+    }
+
+    /**
+     * Sets the timeout for establishing a connection, if it should be shorter than the attempt timeout.
+     *
+     * @param connectTimeout
+     *          connect timeout per attempt
+     * @return these options
+     */
+    public CallOptions withConnectTimeout(final Duration connectTimeout) {
+        this.connectTimeout = requirePositive(connectTimeout, "connectTimeout");
+        return this;
+    }
+
+    /**
+     * Sets the maximum duration of the whole call, including all retries and their delays.
+     *
+     * @param timeout
+     *          overall timeout, starting when the call is made
+     * @return these options
+     */
+    public CallOptions withTimeout(final Duration timeout) {
+        this.timeout = requirePositive(timeout, "timeout");
+        return this;
+    }
+
+    /**
+     * Sets a deadline the call has to meet, typically inherited from the request being handled with
+     * {@link Deadline#fromHeaders(javax.ws.rs.core.HttpHeaders)}.
+     *
+     * @param deadline
+     *          deadline, {@code null} for none
+     * @return these options
+     */
+    public CallOptions withDeadline(final Deadline deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Sets whether attempts send the time left in the {@value Deadline#HEADER} header, {@code true} by default.
+     *
+     * @param propagateDeadline
+     *          {@code false} to keep the deadline to the client
+     * @return these options
+     */
+    public CallOptions withDeadlinePropagation(final boolean propagateDeadline) {
+        this.propagateDeadline = propagateDeadline;
+        return this;
+    }
+
+    /**
+     * @return timeout per attempt, {@code null} if attempts are not bounded
+     */
+    public Duration getAttemptTimeout() {
+        return attemptTimeout;
+    }
+
+    /**
+     * @return connect timeout per attempt, {@code null} if it is the attempt timeout
+     */
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return overall timeout, {@code null} if the call is not bounded
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return deadline to meet in addition to the timeout, {@code null} if there is none
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return {@code true} if attempts send the time left in the {@value Deadline#HEADER} header
+     */
+    public boolean isDeadlinePropagation() {
+        return propagateDeadline;
+    }
+
+    /**
+     * @param deadline
+     *          deadline to meet as well, {@code null} for none
+     * @return copy of these options which also has to meet the given deadline
+     */
+    CallOptions within(final Deadline deadline) {
+        final CallOptions copy = new CallOptions();
+        copy.attemptTimeout = attemptTimeout;
+        copy.connectTimeout = connectTimeout;
+        copy.timeout = timeout;
+        copy.deadline = deadline == null ? this.deadline : deadline.min(this.deadline);
+        copy.propagateDeadline = propagateDeadline;
+        return copy;
+    }
+
+    /**
+     * @return deadline of a call starting now, the earlier of the timeout and the given deadline, {@code null} if
+     *          there is neither
+     */
+    Deadline newDeadline() {
+        return timeout == null ? deadline : Deadline.after(timeout).min(deadline);
+    }
+
+    private static Duration requirePositive(final Duration duration, final String name) {
+        if (duration == null || duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException(name + " must be > 0");
+        }
+        return duration;
+    }
+}
@@ -0,0 +1,242 @@
+package loc.chripoli.resilience_demo;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.ws.rs.core.Response;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Reactive Streams publisher of the results of resilient calls to a stream of URLs.
+ * <p>
+ * Calls are started on demand only: a call is in flight or its result buffered for every element requested by the
+ * subscriber and not delivered yet, up to the parallelism of the {@link BatchOptions}, so the publisher never holds
+ * more responses than the subscriber asked for and the URLs are pulled from their source no faster than that. Results
+ * are delivered in completion order. Failed calls, retries exhausted and circuit breaker rejections included, are
+ * elements with the outcome {@link CallResult.Outcome#FAILURE} or {@link CallResult.Outcome#TIMEOUT}; the stream itself
+ * only fails if the source of the URLs throws, after the calls started before have been delivered.
+ * <p>
+ * Every subscription iterates the URLs anew and starts the timeout of the batch options, if any. Once it passes, no
+ * further calls are started and the stream completes when the calls in flight, which time out with it, are delivered.
+ * On Java 9 and later, {@code org.reactivestreams.FlowAdapters} turns the publisher into a
+ * {@code java.util.concurrent.Flow.Publisher}.
+ *
+ * @author chripoli
+ * @see JerseyTestClient#publishCalls
+ */
+public class CallPublisher implements Publisher<CallResult> {
+
+    private final Iterable<String> urls;
+    private final BatchOptions batchOptions;
+    private final BiFunction<String, CallOptions, CompletableFuture<Response>> call;
+
+    /**
+     * @param urls
+     *          source of the URLs to call, iterated once per subscription
+     * @param batchOptions
+     *          parallelism, overall timeout and timeouts per call
+     * @param call
+     *          starts the resilient call of a URL with the given options
+     */
+    CallPublisher(final Iterable<String> urls, final BatchOptions batchOptions, final BiFunction<String, CallOptions, CompletableFuture<Response>> call) {
+        this.urls = urls;
+        this.batchOptions = batchOptions;
+        this.call = call;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super CallResult> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber must not be null");
+        }
+        final Iterator<String> source;
+        try {
+            source = urls.iterator();
+        } catch (RuntimeException e) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(final long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(e);
+            return;
+        }
+        final Deadline deadline = batchOptions.newDeadline();
+        final CallOptions callOptions = deadline == null ? batchOptions.getCallOptions() : batchOptions.getCallOptions().within(deadline);
+        final CallSubscription subscription = new CallSubscription(subscriber, source, deadline, callOptions);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    /**
+     * Subscription of a single subscriber. All signals to the subscriber are sent from the drain loop, which runs on one
+     * thread at a time: the one requesting, or the one completing a call.
+     */
+    private final class CallSubscription implements Subscription {
+
+        private final Subscriber<? super CallResult> subscriber;
+        private final Iterator<String> source;
+        private final Deadline deadline;
+        private final CallOptions callOptions;
+        private final int parallelism = batchOptions.getParallelism();
+
+        private final Queue<CallResult> completed = new ConcurrentLinkedQueue<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger buffered = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger drainRequests = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+
+        // only accessed by the drain loop
+        private boolean exhausted;
+        private Throwable sourceFailure;
+        private boolean terminated;
+
+        private CallSubscription(final Subscriber<? super CallResult> subscriber, final Iterator<String> source, final Deadline deadline,
+                                 final CallOptions callOptions) {
+            this.subscriber = subscriber;
+            this.source = source;
+            this.deadline = deadline;
+            this.callOptions = callOptions;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("§3.9: request must be > 0, was " + n);
+            } else {
+                requested.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (drainRequests.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                if (terminated || cancelled) {
+                    terminated = true;
+                    discardCompleted();
+                    continue;
+                }
+                if (invalidRequest != null) {
+                    terminate(invalidRequest);
+                    continue;
+                }
+                emit();
+                if (!cancelled) {
+                    launch();
+                }
+                if (exhausted && inFlight.get() == 0 && buffered.get() == 0 && !cancelled) {
+                    terminate(sourceFailure);
+                }
+            } while (drainRequests.decrementAndGet() != 0);
+        }
+
+        /**
+         * Delivers buffered results as far as requested.
+         */
+        private void emit() {
+            final long demand = requested.get();
+            long emitted = 0;
+            while (emitted < demand && !cancelled) {
+                final CallResult result = completed.poll();
+                if (result == null) {
+                    break;
+                }
+                buffered.decrementAndGet();
+                emitted++;
+                subscriber.onNext(result);
+            }
+            if (emitted > 0 && demand != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+        }
+
+        /**
+         * Starts calls while the parallelism allows and results in flight or buffered do not cover the demand yet.
+         */
+        private void launch() {
+            while (!exhausted && !cancelled && inFlight.get() < parallelism && inFlight.get() + buffered.get() < requested.get()) {
+                if (deadline != null && deadline.isExpired()) {
+                    exhausted = true;
+                    return;
+                }
+                final String url;
+                try {
+                    if (!source.hasNext()) {
+                        exhausted = true;
+                        return;
+                    }
+                    url = source.next();
+                } catch (RuntimeException e) {
+                    exhausted = true;
+                    sourceFailure = e;
+                    return;
+                }
+                inFlight.incrementAndGet();
+                start(url);
+            }
+        }
+
+        private void start(final String url) {
+            final long startNanos = System.nanoTime();
+            CompletableFuture<Response> future;
+            try {
+                future = call.apply(url, callOptions);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((response, failure) -> {
+                completed.add(CallResult.of(url, response, failure, System.nanoTime() - startNanos));
+                // count the result as buffered before it leaves the calls in flight, so the demand is never exceeded
+                buffered.incrementAndGet();
+                inFlight.decrementAndGet();
+                drain();
+            });
+        }
+
+        private void terminate(final Throwable failure) {
+            terminated = true;
+            discardCompleted();
+            if (failure == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(failure);
+            }
+        }
+
+        /**
+         * Closes the responses nobody is going to receive.
+         */
+        private void discardCompleted() {
+            CallResult result;
+            while ((result = completed.poll()) != null) {
+                buffered.decrementAndGet();
+                if (result.getResponse() != null) {
+                    result.getResponse().close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.TimeoutExceededException;
+
+import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Outcome of one resilient call within a batch or stream of calls.
+ *
+ * @author chripoli
+ * @see JerseyTestClient#executeCalls
+ */
+public class CallResult {
+
+    /**
+     * Kind of outcome of a call.
+     */
+    public enum Outcome {
+
+        /**
+         * The call returned a response with a status below 500.
+         */
+        SUCCESS,
+
+        /**
+         * The call failed with an exception or returned a response with a status of 500 or above.
+         */
+        FAILURE,
+
+        /**
+         * The call timed out, or it was not started before the deadline passed.
+         */
+        TIMEOUT
+    }
+
+    private final String url;
+    private final Outcome outcome;
+    private final Response response;
+    private final Throwable failure;
+    private final long latencyNanos;
+
+    private CallResult(final String url, final Outcome outcome, final Response response, final Throwable failure, final long latencyNanos) {
+        this.url = url;
+        this.outcome = outcome;
+        this.response = response;
+        this.failure = failure;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * @param url
+     *          URL of the call
+     * @param response
+     *          final response, {@code null} if the call failed
+     * @param failure
+     *          final exception, {@code null} if there is a response
+     * @param latencyNanos
+     *          duration of the call including all retries
+     * @return result classified by the outcome
+     */
+    static CallResult of(final String url, final Response response, final Throwable failure, final long latencyNanos) {
+        final Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+        final Outcome outcome;
+        if (cause != null) {
+            outcome = cause instanceof TimeoutExceededException ? Outcome.TIMEOUT : Outcome.FAILURE;
+        } else {
+            outcome = response.getStatus() < 500 ? Outcome.SUCCESS : Outcome.FAILURE;
+        }
+        return new CallResult(url, outcome, response, cause, latencyNanos);
+    }
+
+    /**
+     * @param url
+     *          URL of the call
+     * @return result of a call which was not started before the deadline passed
+     */
+    static CallResult notStarted(final String url) {
+        return new CallResult(url, Outcome.TIMEOUT, null, null, 0);
+    }
+
+    /**
+     * @return URL of the call
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return kind of outcome
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return {@code true} if the outcome is {@link Outcome#SUCCESS}
+     */
+    public boolean isSuccess() {
+        return outcome == Outcome.SUCCESS;
+    }
+
+    /**
+     * @return final response, {@code null} if the call failed with an exception or was not started
+     */
+    public Response getResponse() {
+        return response;
+    }
+
+    /**
+     * @return final exception, {@code null} if there is a response or the call was not started
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return duration of the call including all retries in nanoseconds, 0 if it was not started
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "CallResult[" + outcome + ", " + url
+                + (response != null ? ", status=" + response.getStatus() : "")
+                + (failure != null ? ", failure=" + failure : "") + "]";
+    }
+}
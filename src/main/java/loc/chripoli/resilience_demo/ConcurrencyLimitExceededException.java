@@ -0,0 +1,21 @@
+package loc.chripoli.resilience_demo;
+
+/**
+ * Thrown if an {@link AdaptiveConcurrencyLimiter} is at its current limit.
+ *
+ * @author chripoli
+ */
+public class ConcurrencyLimitExceededException extends AttemptRejectedException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param host
+     *          target of the rejected attempt
+     * @param message
+     *          reason of the rejection
+     */
+    public ConcurrencyLimitExceededException(final String host, final String message) {
+        super(host, message);
+    }
+}
@@ -0,0 +1,110 @@
+package loc.chripoli.resilience_demo;
+
+import java.time.Duration;
+
+/**
+ * Configuration of the keep-alive connection pool shared by all calls of a {@link JerseyTestClient}.
+ *
+ * @author chripoli
+ */
+public class ConnectionPoolConfig {
+
+    private int maxTotal = 200;
+    private int maxPerRoute = 20;
+    private Duration idleTimeout = Duration.ofSeconds(30);
+    private Duration validateAfterInactivity = Duration.ofSeconds(2);
+    private Duration evictionInterval = Duration.ofSeconds(5);
+
+    /**
+     * Sets the maximum number of pooled connections over all routes.
+     *
+     * @param maxTotal
+     *          maximum number of connections
+     * @return this configuration
+     */
+    public ConnectionPoolConfig withMaxTotal(final int maxTotal) {
+        if (maxTotal < 1) {
+            throw new IllegalArgumentException("maxTotal must be >= 1");
+        }
+        this.maxTotal = maxTotal;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of pooled connections per route (host and port).
+     *
+     * @param maxPerRoute
+     *          maximum number of connections per route
+     * @return this configuration
+     */
+    public ConnectionPoolConfig withMaxPerRoute(final int maxPerRoute) {
+        if (maxPerRoute < 1) {
+            throw new IllegalArgumentException("maxPerRoute must be >= 1");
+        }
+        this.maxPerRoute = maxPerRoute;
+        return this;
+    }
+
+    /**
+     * Sets the time after which an unused connection is closed by the idle eviction.
+     *
+     * @param idleTimeout
+     *          idle timeout
+     * @return this configuration
+     */
+    public ConnectionPoolConfig withIdleTimeout(final Duration idleTimeout) {
+        this.idleTimeout = requirePositive(idleTimeout, "idleTimeout");
+        return this;
+    }
+
+    /**
+     * Sets the period of inactivity after which a pooled connection is validated before it is leased again.
+     *
+     * @param validateAfterInactivity
+     *          inactivity period
+     * @return this configuration
+     */
+    public ConnectionPoolConfig withValidateAfterInactivity(final Duration validateAfterInactivity) {
+        this.validateAfterInactivity = requirePositive(validateAfterInactivity, "validateAfterInactivity");
+        return this;
+    }
+
+    /**
+     * Sets how often expired and idle connections are evicted from the pool.
+     *
+     * @param evictionInterval
+     *          eviction interval
+     * @return this configuration
+     */
+    public ConnectionPoolConfig withEvictionInterval(final Duration evictionInterval) {
+        this.evictionInterval = requirePositive(evictionInterval, "evictionInterval");
+        return this;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public Duration getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    public Duration getEvictionInterval() {
+        return evictionInterval;
+    }
+
+    private static Duration requirePositive(final Duration duration, final String name) {
+        if (duration == null || duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException(name + " must be > 0");
+        }
+        return duration;
+    }
+}
@@ -0,0 +1,157 @@
+package loc.chripoli.resilience_demo;
+
+import javax.ws.rs.core.HttpHeaders;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a call has to be completed, including all of its retries and backoff delays.
+ * <p>
+ * A deadline is measured on the monotonic clock of {@link System#nanoTime()}, so it is not affected by adjustments of
+ * the wall clock, and it is only meaningful within the JVM which created it. Across services it travels as the time
+ * left in the {@value #HEADER} request header, in whole milliseconds like {@code grpc-timeout}, so clock skew between
+ * hosts does not matter. Network latency is not subtracted; the receiver's deadline ends a little later than the
+ * sender's.
+ * <p>
+ * A service handling a request can inherit the shrinking budget for its own calls:
+ * <pre>{@code
+ * Deadline deadline = Deadline.fromHeaders(httpHeaders);
+ * client.executeCall(url, retryPolicy, circuitBreaker, new CallOptions().withTimeout(ownTimeout).withDeadline(deadline));
+ * }</pre>
+ *
+ * @author chripoli
+ * @see CallOptions#withTimeout(Duration)
+ * @see CallOptions#withDeadline(Deadline)
+ */
+public class Deadline implements Comparable<Deadline> {
+
+    /**
+     * Request header holding the time left until the deadline of the caller in milliseconds.
+     */
+    public static final String HEADER = "X-Request-Deadline";
+
+    private final long deadlineNanos;
+
+    private Deadline(final long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @param timeout
+     *          time from now until the deadline
+     * @return deadline after the given timeout
+     */
+    public static Deadline after(final Duration timeout) {
+        if (timeout == null || timeout.isNegative()) {
+            throw new IllegalArgumentException("timeout must be >= 0");
+        }
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * Reads the deadline propagated by the caller of a request.
+     *
+     * @param headerValue
+     *          value of the {@value #HEADER} header, may be {@code null}
+     * @return deadline after the time left, {@code null} if the header is missing or malformed
+     */
+    public static Deadline fromHeader(final String headerValue) {
+        if (headerValue == null) {
+            return null;
+        }
+        final long remainingMillis;
+        try {
+            remainingMillis = Long.parseLong(headerValue.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        // more than a day is as good as no deadline and must not overflow the nanosecond clock
+        if (remainingMillis > TimeUnit.DAYS.toMillis(1)) {
+            return null;
+        }
+        return after(Duration.ofMillis(Math.max(0, remainingMillis)));
+    }
+
+    /**
+     * Reads the deadline propagated by the caller of a request handled by a JAX-RS resource.
+     *
+     * @param headers
+     *          headers of the request, e.g. injected with {@code @Context}
+     * @return deadline after the time left, {@code null} if the caller did not propagate one
+     */
+    public static Deadline fromHeaders(final HttpHeaders headers) {
+        return fromHeader(headers.getHeaderString(HEADER));
+    }
+
+    /**
+     * @return value of the {@value #HEADER} header propagating this deadline, the time left in whole milliseconds
+     */
+    public String toHeaderValue() {
+        return Long.toString(Math.max(0, remainingNanos() / 1_000_000));
+    }
+
+    /**
+     * @return time left until the deadline in nanoseconds, zero or negative once it has passed
+     */
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    /**
+     * @param unit
+     *          unit of the result
+     * @return time left until the deadline, rounded up to the unit, zero once it has passed
+     */
+    public long remaining(final TimeUnit unit) {
+        final long remainingNanos = remainingNanos();
+        if (remainingNanos <= 0) {
+            return 0;
+        }
+        final long unitNanos = unit.toNanos(1);
+        return remainingNanos / unitNanos + (remainingNanos % unitNanos == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return time left until the deadline, zero once it has passed
+     */
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, remainingNanos()));
+    }
+
+    /**
+     * @return {@code true} if the deadline has passed
+     */
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * @param other
+     *          deadline to compare with, may be {@code null}
+     * @return the earlier of both deadlines
+     */
+    public Deadline min(final Deadline other) {
+        return other == null || compareTo(other) <= 0 ? this : other;
+    }
+
+    @Override
+    public int compareTo(final Deadline other) {
+        // compare the difference, as nanoTime values may overflow
+        return Long.signum(deadlineNanos - other.deadlineNanos);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof Deadline && ((Deadline) other).deadlineNanos == deadlineNanos;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(deadlineNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline[remaining=" + remainingNanos() / 1_000_000 + "ms]";
+    }
+}
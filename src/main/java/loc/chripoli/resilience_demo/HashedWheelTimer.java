@@ -0,0 +1,280 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.util.concurrent.Scheduler;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer keeping its tasks in a hashed wheel, for large numbers of retry delays, hedges and timeouts.
+ * <p>
+ * The wheel is an array of buckets, each covering one tick (10 ms by default). A task is put into the bucket of its
+ * deadline, together with the number of full wheel rounds still to wait, so scheduling and cancelling are O(1)
+ * regardless of the number of pending tasks, unlike the O(log n) heap of a {@code ScheduledThreadPoolExecutor}.
+ * Scheduling threads only append to a lock-free queue; a single ticker thread moves new tasks into their buckets once
+ * per tick and hands expired tasks to the worker executor, so tasks never run on the ticker itself. Cancelled tasks are
+ * dropped lazily when the ticker reaches their bucket.
+ * <p>
+ * Tasks run at the first tick after their deadline, i.e. never early and up to one tick late. Tasks without a delay
+ * are handed to the workers right away. The timer is a Failsafe {@link Scheduler}, so it can drive the retry delays
+ * and timeouts of asynchronous executions.
+ *
+ * @author chripoli
+ */
+public final class HashedWheelTimer implements Scheduler, Closeable {
+
+    /**
+     * Maximum number of new tasks moved into the wheel per tick, so a flood of schedules cannot stall the ticker.
+     */
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final List<Task>[] wheel;
+    private final int mask;
+    private final Executor workers;
+
+    private final Queue<Task> newTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingTasks = new AtomicLong();
+    private final Thread ticker;
+    private final long startNanos;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a timer with a tick of 10 ms and 512 buckets.
+     *
+     * @param workers
+     *          executor running the expired tasks
+     */
+    public HashedWheelTimer(final Executor workers) {
+        this(Duration.ofMillis(10), 512, workers);
+    }
+
+    /**
+     * @param tickDuration
+     *          duration of one tick, i.e. the precision of the timer
+     * @param wheelSize
+     *          number of buckets, rounded up to a power of two
+     * @param workers
+     *          executor running the expired tasks
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(final Duration tickDuration, final int wheelSize, final Executor workers) {
+        if (tickDuration == null || tickDuration.toNanos() < TimeUnit.MILLISECONDS.toNanos(1)) {
+            throw new IllegalArgumentException("tickDuration must be >= 1 ms");
+        }
+        if (wheelSize < 1 || wheelSize > 1 << 20) {
+            throw new IllegalArgumentException("wheelSize must be >= 1 and <= 2^20");
+        }
+        this.tickNanos = tickDuration.toNanos();
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.wheel = (List<Task>[]) new List<?>[size];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = wheel.length - 1;
+        this.workers = workers;
+        this.startNanos = System.nanoTime();
+        this.ticker = new Thread(this::run, "hashed-wheel-timer");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param callable
+     *          task to run
+     * @param delay
+     *          delay after which the task runs
+     * @param unit
+     *          unit of the delay
+     * @return future completed with the outcome of the task, cancellable until the task started
+     * @throws RejectedExecutionException
+     *          if the timer has been closed
+     */
+    @Override
+    public ScheduledFuture<?> schedule(final Callable<?> callable, final long delay, final TimeUnit unit) {
+        if (!running) {
+            throw new RejectedExecutionException("Timer has been closed");
+        }
+        final long delayNanos = Math.max(0, unit.toNanos(delay));
+        final Task task = new Task(callable, System.nanoTime() + delayNanos);
+        pendingTasks.incrementAndGet();
+        if (delayNanos == 0) {
+            dispatch(task);
+        } else {
+            newTasks.add(task);
+        }
+        return task;
+    }
+
+    /**
+     * @return number of tasks waiting for their deadline, not counting cancelled ones
+     */
+    public long getPendingCount() {
+        return pendingTasks.get();
+    }
+
+    /**
+     * Stops the ticker and cancels all tasks which have not been handed to the workers yet.
+     */
+    @Override
+    public void close() {
+        running = false;
+        ticker.interrupt();
+        try {
+            ticker.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // the ticker has left its loop, so the wheel is no longer modified
+        for (List<Task> bucket : wheel) {
+            bucket.forEach(task -> task.cancel(false));
+        }
+        Task task;
+        while ((task = newTasks.poll()) != null) {
+            task.cancel(false);
+        }
+    }
+
+    private void run() {
+        long tick = 0;
+        while (running) {
+            final long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+                if (!running) {
+                    return;
+                }
+            }
+            transferNewTasks(tick);
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Moves newly scheduled tasks into the bucket of the tick at which their deadline has passed.
+     */
+    private void transferNewTasks(final long currentTick) {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            final Task task = newTasks.poll();
+            if (task == null) {
+                return;
+            }
+            if (task.isDone()) {
+                continue;
+            }
+            // the bucket of tick t is expired at startNanos + (t + 1) * tickNanos
+            final long dueTick = Math.max(currentTick, (task.deadlineNanos - startNanos + tickNanos - 1) / tickNanos - 1);
+            task.remainingRounds = (dueTick - currentTick) / wheel.length;
+            wheel[(int) (dueTick & mask)].add(task);
+        }
+    }
+
+    private void expire(final List<Task> bucket) {
+        int i = 0;
+        while (i < bucket.size()) {
+            final Task task = bucket.get(i);
+            if (task.isDone() || task.remainingRounds <= 0) {
+                // swap remove, the order within a bucket does not matter
+                final Task last = bucket.remove(bucket.size() - 1);
+                if (i < bucket.size()) {
+                    bucket.set(i, last);
+                }
+                if (!task.isDone()) {
+                    dispatch(task);
+                }
+            } else {
+                task.remainingRounds--;
+                i++;
+            }
+        }
+    }
+
+    private void dispatch(final Task task) {
+        if (!task.claim()) {
+            return;
+        }
+        pendingTasks.decrementAndGet();
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Scheduled task, which is its own future.
+     */
+    private final class Task extends CompletableFuture<Object> implements ScheduledFuture<Object>, Runnable {
+
+        private final Callable<?> callable;
+        private final long deadlineNanos;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private long remainingRounds;
+
+        private Task(final Callable<?> callable, final long deadlineNanos) {
+            this.callable = callable;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Takes the task out of the pending ones, either to run or to cancel it.
+         *
+         * @return {@code true} for the first caller only
+         */
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            try {
+                complete(callable.call());
+            } catch (Throwable t) {
+                completeExceptionally(t);
+            }
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && claim()) {
+                pendingTasks.decrementAndGet();
+            }
+            return cancelled;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
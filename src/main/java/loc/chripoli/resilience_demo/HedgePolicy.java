@@ -0,0 +1,148 @@
+package loc.chripoli.resilience_demo;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configuration and state of request hedging for {@link JerseyTestClient#executeCallHedged}.
+ * <p>
+ * If an attempt has not completed after the hedge delay, a backup request is issued and the first successful response
+ * wins. The delay is either fixed or taken from a percentile of the observed latencies (e.g. the p95), falling back to
+ * the fixed delay until enough samples were recorded. The number of backup requests is limited to a ratio of all
+ * attempts, so hedging cannot multiply the load of a struggling upstream.
+ * <p>
+ * A policy is meant to be shared by all calls to the same upstream.
+ *
+ * @author chripoli
+ */
+public class HedgePolicy {
+
+    /**
+     * Number of recorded latencies after which the percentile based delay is recomputed, once it has been computed
+     * first.
+     */
+    private static final int RECOMPUTE_INTERVAL = 100;
+
+    private Duration delay = Duration.ofMillis(100);
+    private double delayPercentile = -1;
+    private long minSamples = 100;
+    private double maxHedgeRatio = 0.1;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private volatile long observedDelayNanos = -1;
+
+    /**
+     * Sets the fixed hedge delay, used if no percentile is configured or not enough latencies were observed yet.
+     *
+     * @param delay
+     *          delay after which a backup request is issued
+     * @return this policy
+     */
+    public HedgePolicy withDelay(final Duration delay) {
+        if (delay == null || delay.isNegative()) {
+            throw new IllegalArgumentException("delay must be >= 0");
+        }
+        this.delay = delay;
+        return this;
+    }
+
+    /**
+     * Derives the hedge delay from the observed latencies of successful attempts.
+     *
+     * @param percentile
+     *          percentile between 0 and 1, e.g. {@code 0.95}
+     * @param minSamples
+     *          number of latencies to observe before the percentile replaces the fixed delay, at least 1
+     * @return this policy
+     */
+    public HedgePolicy withDelayPercentile(final double percentile, final long minSamples) {
+        if (percentile <= 0 || percentile >= 1) {
+            throw new IllegalArgumentException("percentile must be between 0 and 1");
+        }
+        if (minSamples < 1) {
+            throw new IllegalArgumentException("minSamples must be >= 1");
+        }
+        this.delayPercentile = percentile;
+        this.minSamples = minSamples;
+        return this;
+    }
+
+    /**
+     * Sets the hedge budget.
+     *
+     * @param maxHedgeRatio
+     *          maximum number of backup requests as a fraction of all attempts, e.g. {@code 0.1} for 10%
+     * @return this policy
+     */
+    public HedgePolicy withMaxHedgeRatio(final double maxHedgeRatio) {
+        if (maxHedgeRatio < 0) {
+            throw new IllegalArgumentException("maxHedgeRatio must be >= 0");
+        }
+        this.maxHedgeRatio = maxHedgeRatio;
+        return this;
+    }
+
+    /**
+     * @return number of hedged attempts so far
+     */
+    public long getAttemptCount() {
+        return attempts.get();
+    }
+
+    /**
+     * @return number of backup requests issued so far
+     */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * @return current hedge delay in nanoseconds
+     */
+    long getHedgeDelayNanos() {
+        final long observed = observedDelayNanos;
+        return observed >= 0 ? observed : delay.toNanos();
+    }
+
+    void recordAttempt() {
+        attempts.incrementAndGet();
+    }
+
+    /**
+     * Takes a backup request from the budget.
+     *
+     * @return {@code true} if a backup request may be issued
+     */
+    boolean tryAcquireHedge() {
+        while (true) {
+            final long current = hedges.get();
+            if (current + 1 > maxHedgeRatio * attempts.get()) {
+                return false;
+            }
+            if (hedges.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records the latency of a successful attempt. The percentile based delay is computed once the minimum number of
+     * samples is reached, and recomputed every {@value #RECOMPUTE_INTERVAL} samples after that.
+     *
+     * @param nanos
+     *          latency in nanoseconds
+     */
+    void recordLatency(final long nanos) {
+        if (delayPercentile < 0) {
+            return;
+        }
+        latencies.record(nanos);
+        final long count = samples.incrementAndGet();
+        if (count >= minSamples && (count - minSamples) % RECOMPUTE_INTERVAL == 0) {
+            observedDelayNanos = latencies.getValueAtPercentile(delayPercentile);
+        }
+    }
+}
@@ -1,20 +1,209 @@
 package loc.chripoli.resilience_demo;
 
 import net.jodah.failsafe.CircuitBreaker;
+import net.jodah.failsafe.CircuitBreakerOpenException;
 import net.jodah.failsafe.Failsafe;
+import net.jodah.failsafe.FailsafeException;
+import net.jodah.failsafe.FailsafeExecutor;
+import net.jodah.failsafe.Fallback;
+import net.jodah.failsafe.Policy;
 import net.jodah.failsafe.RetryPolicy;
+import net.jodah.failsafe.Timeout;
+import net.jodah.failsafe.TimeoutExceededException;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
 import org.glassfish.jersey.client.JerseyClient;
 import org.glassfish.jersey.client.JerseyClientBuilder;
-import org.glassfish.jersey.client.JerseyWebTarget;
+import org.glassfish.jersey.message.MessageBodyWorkers;
+import org.reactivestreams.Publisher;
 
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.ReaderInterceptor;
+import java.io.Closeable;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Class which is used to generate a simple Jersey 2.x client and call an endpoint.
+ * <p>
+ * The underlying Jersey client is created once and backed by a bounded keep-alive connection pool, so all calls and
+ * retries of one instance reuse warm connections. Instances are thread-safe and should be shared and {@link #close()}d
+ * when no longer needed.
+ * <p>
+ * Asynchronous calls schedule their retry delays, hedges and timeouts on a shared {@link HashedWheelTimer} instead of
+ * parking a thread, so the number of outstanding calls is only bounded by memory while the number of threads blocked
+ * on I/O is bounded by the pool. Synchronous calls still wait for their retry delays on the calling thread.
+ * <p>
+ * The {@link FailsafeExecutor} composed of a retry policy and a circuit breaker is built once per pair of policy
+ * instances and reused by all later calls with the same pair. Policies should therefore be created once and shared, not
+ * per call.
+ * <p>
+ * {@link AttemptGuard}s registered with {@link #withGuard(AttemptGuard)} admit or reject every single attempt of the
+ * resilient calls, e.g. a {@link Bulkhead} per host. They are asked between the retry policy and the circuit breaker,
+ * so a rejected attempt is retried but not recorded as a failure by the breaker. With guards, the executors are
+ * composed per call. Guards should be registered before the client is used. A {@link ResilienceMetrics} registered
+ * as the first guard records every attempt per host.
+ * <p>
+ * With {@link #withRequestCoalescing(RequestCoalescer)}, concurrent resilient calls of the same URL share one upstream
+ * call and its retry sequence, and each caller receives its own {@link BufferedResponse}. With
+ * {@link #withResponseCache(ResponseCache)}, fresh cached responses are served before any of this happens; if the
+ * cache keeps stale responses, they are served as fallback while the circuit breaker is open or once the retries are
+ * exhausted.
+ * <p>
+ * Without {@link CallOptions}, an attempt waits for the upstream as long as it keeps the connection open. With them,
+ * every attempt and the call as a whole are bounded, see {@link #executeCall(String, RetryPolicy, CircuitBreaker, CallOptions)}.
  *
  * @author chripoli
  */
-public class JerseyTestClient {
+public class JerseyTestClient implements Closeable {
+
+    /**
+     * Number of threads running the tasks of the timer: asynchronous attempts, hedges and idle connection eviction.
+     */
+    private static final int WORKER_THREADS = 2;
+
+    /**
+     * Number of retry policies, and of circuit breakers per retry policy, whose composed executors are cached.
+     */
+    private static final int MAX_CACHED_POLICIES = 64;
+
+    /**
+     * Milliseconds the socket timeouts of an attempt exceed its attempt timeout or deadline, so the Failsafe timeout
+     * fires first, even on a late timer tick, and the attempt fails with a {@link TimeoutExceededException} rather
+     * than a {@code SocketTimeoutException}. The socket timeouts only release a hung connection.
+     */
+    private static final long SOCKET_TIMEOUT_GRACE_MILLIS = 100;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final JerseyClient client;
+    private final ExecutorService workers;
+    private final HashedWheelTimer timer;
+    private final ConcurrentMap<RetryPolicy<Response>, ConcurrentMap<CircuitBreaker<Response>, FailsafeExecutor<Response>>> executors = new ConcurrentHashMap<>();
+    private volatile AttemptGuard[] guards = new AttemptGuard[0];
+    private volatile RequestCoalescer coalescer;
+    private volatile ResponseCache responseCache;
+    private final EntityReaders entityReaders = new EntityReaders();
+
+    /**
+     * Creates a client with the default connection pool configuration.
+     */
+    public JerseyTestClient() {
+        this(new ConnectionPoolConfig());
+    }
+
+    /**
+     * Creates a client backed by a connection pool with the given configuration.
+     *
+     * @param poolConfig
+     *          connection pool configuration
+     */
+    public JerseyTestClient(final ConnectionPoolConfig poolConfig) {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(poolConfig.getMaxTotal());
+        connectionManager.setDefaultMaxPerRoute(poolConfig.getMaxPerRoute());
+        connectionManager.setValidateAfterInactivity((int) poolConfig.getValidateAfterInactivity().toMillis());
+
+        client = JerseyClientBuilder.createClient(new ClientConfig()
+                .connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ApacheClientProperties.CONNECTION_MANAGER_SHARED, true)
+                // the Apache connector blocks one async thread per in-flight request, so more threads than
+                // pooled connections would only wait for a lease
+                .property(ClientProperties.ASYNC_THREADPOOL_SIZE, poolConfig.getMaxTotal())
+                .register(entityReaders));
+
+        workers = Executors.newFixedThreadPool(WORKER_THREADS, runnable -> {
+            final Thread thread = new Thread(runnable, "jersey-test-client-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer = new HashedWheelTimer(workers);
+        scheduleIdleEviction(poolConfig.getIdleTimeout().toMillis(), poolConfig.getEvictionInterval().toMillis());
+    }
+
+    /**
+     * Registers a guard for all attempts of resilient calls. Guards are applied in the order of their registration.
+     * Attempts of asynchronous calls are admitted without waiting, see {@link AttemptGuard#acquireNow(String, int)}.
+     *
+     * @param guard
+     *          guard to add
+     * @return this client
+     */
+    public synchronized JerseyTestClient withGuard(final AttemptGuard guard) {
+        final AttemptGuard[] extended = Arrays.copyOf(guards, guards.length + 1);
+        extended[guards.length] = guard;
+        guards = extended;
+        return this;
+    }
+
+    /**
+     * Registers a guard shared by all users of this client which need it, unless a guard of its type is registered
+     * already.
+     *
+     * @param type
+     *          type of the guard
+     * @param factory
+     *          creates the guard for this client
+     * @param <G> type of the guard
+     * @return the registered guard of the type
+     */
+    synchronized <G extends AttemptGuard> G withSharedGuard(final Class<G> type, final Function<JerseyTestClient, G> factory) {
+        for (AttemptGuard guard : guards) {
+            if (type.isInstance(guard)) {
+                return type.cast(guard);
+            }
+        }
+        final G guard = factory.apply(this);
+        withGuard(guard);
+        return guard;
+    }
+
+    /**
+     * Collapses concurrent resilient calls of the same URL into one upstream call, see {@link RequestCoalescer}.
+     *
+     * @param coalescer
+     *          coalescer to use, {@code null} to send every call on its own
+     * @return this client
+     */
+    public JerseyTestClient withRequestCoalescing(final RequestCoalescer coalescer) {
+        this.coalescer = coalescer;
+        return this;
+    }
+
+    /**
+     * Serves resilient calls from the given cache while the cached response is fresh, and stores cacheable responses.
+     * If the cache is configured {@link ResponseCache#withStaleIfError(Duration) stale-if-error}, its last known good
+     * response of a URL is served immediately while the circuit breaker is open, and once the retries are exhausted.
+     *
+     * @param responseCache
+     *          cache to use, {@code null} to disable caching
+     * @return this client
+     */
+    public JerseyTestClient withResponseCache(final ResponseCache responseCache) {
+        this.responseCache = responseCache;
+        return this;
+    }
 
     /**
      * Executes a HTTP request with resilience options enabled.
@@ -30,11 +219,223 @@ public class JerseyTestClient {
      */
     public Response executeCall(final String url, final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker) {
 
-        return Failsafe.with(retryPolicy, circuitBreaker).get(() -> {
-            final JerseyClient client = JerseyClientBuilder.createClient();
-            final JerseyWebTarget target = client.target(url);
-            return target.request().get();
-        });
+        return serve(url, null, () -> executorFor(url, retryPolicy, circuitBreaker).get(() -> get(url)));
+
+    }
+
+    /**
+     * Executes a HTTP request with resilience options enabled without blocking the calling thread.
+     * Retries and backoff delays are scheduled on the shared timer, the request itself uses Jersey's rx invoker.
+     *
+     * @param url
+     *          URL to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @return
+     *          future completed with the Response, or exceptionally if the call finally failed
+     */
+    public CompletableFuture<Response> executeCallAsync(final String url, final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker) {
+
+        return serveAsync(url, null, () -> executorFor(url, retryPolicy, circuitBreaker).getStageAsync(() -> getAsync(url)));
+
+    }
+
+    /**
+     * Executes a HTTP request with resilience options and timeouts enabled.
+     * <p>
+     * Every attempt fails with a {@link TimeoutExceededException} once the attempt timeout passes, which is recorded by
+     * the circuit breaker and retried; its connect and socket read timeouts are set slightly beyond, so a hung upstream
+     * releases the connection and the thread too. The overall timeout starts a {@link Deadline} when the call is made:
+     * the retry policy stops once the time left is shorter than its delay and never schedules a retry beyond the
+     * deadline, the socket timeouts of later attempts are cut to the time left, and the call fails with a
+     * {@code TimeoutExceededException} once the deadline passes, even while waiting for a retry. Every attempt tells
+     * the upstream the time left in the {@value Deadline#HEADER} header.
+     *
+     * @param url
+     *          URL to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @param options
+     *          attempt and overall timeouts
+     * @return
+     *          Response
+     */
+    public Response executeCall(final String url, final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker,
+                                final CallOptions options) {
+
+        final Deadline deadline = options.newDeadline();
+        return serve(url, deadline, () -> executorFor(url, retryPolicy, circuitBreaker, options, deadline)
+                .get(() -> get(request(url, options, deadline))));
+
+    }
+
+    /**
+     * Executes a HTTP request with resilience options and timeouts enabled without blocking the calling thread.
+     * The attempt and overall timeouts are scheduled on the shared timer.
+     *
+     * @param url
+     *          URL to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @param options
+     *          attempt and overall timeouts
+     * @return
+     *          future completed with the Response, or exceptionally if the call finally failed or timed out
+     * @see #executeCall(String, RetryPolicy, CircuitBreaker, CallOptions)
+     */
+    public CompletableFuture<Response> executeCallAsync(final String url, final RetryPolicy<Response> retryPolicy,
+                                                        final CircuitBreaker<Response> circuitBreaker, final CallOptions options) {
+
+        final Deadline deadline = options.newDeadline();
+        return serveAsync(url, deadline, () -> executorFor(url, retryPolicy, circuitBreaker, options, deadline)
+                .getStageAsync(() -> getAsync(request(url, options, deadline))));
+
+    }
+
+    /**
+     * Executes HTTP requests to many URLs with resilience options enabled, at most {@code parallelism} at a time.
+     * <p>
+     * The calls are asynchronous and share the connection pool, the retry policy and the circuit breaker, so an upstream
+     * outage opens the breaker for the rest of the batch. The returned batch yields a {@link CallResult} per URL as the
+     * calls complete. If the batch has a timeout, it is the deadline of every call, and URLs not started before it
+     * passes are reported as timed out without being called.
+     *
+     * @param urls
+     *          URLs to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @param batchOptions
+     *          parallelism, overall timeout and timeouts per call
+     * @return
+     *          running batch, consumed like an iterator
+     */
+    public CallBatch executeCalls(final Collection<String> urls, final RetryPolicy<Response> retryPolicy,
+                                  final CircuitBreaker<Response> circuitBreaker, final BatchOptions batchOptions) {
+
+        final Deadline deadline = batchOptions.newDeadline();
+        final CallOptions callOptions = deadline == null ? batchOptions.getCallOptions() : batchOptions.getCallOptions().within(deadline);
+        final CallBatch batch = new CallBatch(urls, batchOptions.getParallelism(), deadline,
+                url -> executeCallAsync(url, retryPolicy, circuitBreaker, callOptions));
+        if (deadline != null) {
+            final ScheduledFuture<?> expiry = timer.schedule(() -> {
+                batch.expire();
+                return null;
+            }, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+            batch.whenDone().thenRun(() -> expiry.cancel(false));
+        }
+        batch.start();
+        return batch;
+
+    }
+
+    /**
+     * Publishes the results of resilient calls to a stream of URLs, started as the subscriber requests them.
+     * <p>
+     * Like {@link #executeCalls}, the calls are asynchronous and share the connection pool, the retry policy and the
+     * circuit breaker, with at most {@code parallelism} in flight. In addition, no more calls are in flight or buffered
+     * than the subscriber has requested, see {@link CallPublisher}.
+     *
+     * @param urls
+     *          source of the URLs to call, iterated lazily and once per subscription
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @param batchOptions
+     *          parallelism, overall timeout per subscription and timeouts per call
+     * @return
+     *          publisher of a {@link CallResult} per URL in completion order
+     */
+    public Publisher<CallResult> publishCalls(final Iterable<String> urls, final RetryPolicy<Response> retryPolicy,
+                                              final CircuitBreaker<Response> circuitBreaker, final BatchOptions batchOptions) {
+
+        return new CallPublisher(urls, batchOptions, (url, callOptions) -> executeCallAsync(url, retryPolicy, circuitBreaker, callOptions));
+
+    }
+
+    /**
+     * Executes a HTTP request with the retry policy and circuit breaker of its target host.
+     *
+     * @param url
+     *          URL to call
+     * @param policies
+     *          policies per host
+     * @return
+     *          Response
+     */
+    public Response executeCall(final String url, final PolicyRegistry policies) {
+
+        // the policies of the host are leased for the call, so they are not evicted and replaced meanwhile
+        final PerHostRegistry.Entry<PolicyRegistry.HostPolicies> hostPolicies = policies.lease(hostOf(url));
+        try {
+            return serve(url, null, () -> executorFor(url, hostPolicies.value()).get(() -> get(url)));
+        } finally {
+            hostPolicies.release();
+        }
+
+    }
+
+    /**
+     * Executes a HTTP request with the retry policy and circuit breaker of its target host without blocking the
+     * calling thread.
+     *
+     * @param url
+     *          URL to call
+     * @param policies
+     *          policies per host
+     * @return
+     *          future completed with the Response, or exceptionally if the call finally failed
+     */
+    public CompletableFuture<Response> executeCallAsync(final String url, final PolicyRegistry policies) {
+
+        final PerHostRegistry.Entry<PolicyRegistry.HostPolicies> hostPolicies = policies.lease(hostOf(url));
+        final CompletableFuture<Response> call;
+        try {
+            call = serveAsync(url, null, () -> executorFor(url, hostPolicies.value()).getStageAsync(() -> getAsync(url)));
+        } catch (RuntimeException e) {
+            hostPolicies.release();
+            throw e;
+        }
+        call.whenComplete((response, failure) -> hostPolicies.release());
+        return call;
+
+    }
+
+    /**
+     * Executes a HTTP request with resilience options and request hedging enabled without blocking the calling thread.
+     * <p>
+     * If an attempt did not complete within the delay of the hedge policy and the hedge budget allows it, a backup
+     * request is sent to {@code hedgeUrl}. The first successful response (no exception, status below 500) is the result
+     * of the attempt; if both requests fail, the later failure is. The response of the losing request is discarded and
+     * its connection released as soon as it arrives, as a blocking Apache connection cannot be aborted midway.
+     *
+     * @param url
+     *          URL to call
+     * @param hedgeUrl
+     *          URL for the backup request, either the same or an alternate endpoint
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @param hedgePolicy
+     *          hedge delay and budget, shared by all calls to the same upstream
+     * @return
+     *          future completed with the Response, or exceptionally if the call finally failed
+     */
+    public CompletableFuture<Response> executeCallHedged(final String url, final String hedgeUrl, final RetryPolicy<Response> retryPolicy,
+                                                         final CircuitBreaker<Response> circuitBreaker, final HedgePolicy hedgePolicy) {
+
+        final AtomicInteger attempts = new AtomicInteger();
+        return admittingExecutorFor(url, retryPolicy, circuitBreaker)
+                .getStageAsync(() -> getHedged(url, hedgeUrl, hedgePolicy, attempts.incrementAndGet()));
 
     }
 
@@ -47,9 +448,660 @@ public class JerseyTestClient {
      */
     public Response executeCall(final String url) {
 
-            final JerseyClient client = JerseyClientBuilder.createClient();
-            final JerseyWebTarget target = client.target(url);
-            return target.request().get();
+            return get(url);
+
+    }
+
+    /**
+     * @return maximum number of pooled connections over all routes
+     */
+    int getMaxTotalConnections() {
+        return connectionManager.getMaxTotal();
+    }
+
+    /**
+     * @return maximum number of pooled connections per route
+     */
+    int getMaxConnectionsPerRoute() {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    /**
+     * Closes the Jersey client, stops the idle connection eviction and closes all pooled connections.
+     */
+    @Override
+    public void close() {
+        timer.close();
+        workers.shutdownNow();
+        client.close();
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Closes expired and idle pooled connections periodically. Each run schedules the next one on the timer.
+     *
+     * @param idleTimeoutMillis
+     *          idle time after which a connection is closed
+     * @param evictionIntervalMillis
+     *          interval between two runs
+     */
+    private void scheduleIdleEviction(final long idleTimeoutMillis, final long evictionIntervalMillis) {
+        timer.schedule(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+            scheduleIdleEviction(idleTimeoutMillis, evictionIntervalMillis);
+            return null;
+        }, evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the executor for a resilient call of the given URL.
+     * Without stale-if-error, this is the cached executor of the policies; otherwise the policies are composed per call
+     * with fallbacks to the stale response of the URL: one inside the retry policy, so an open circuit breaker is not
+     * retried while a stale response exists, and one outside, for exhausted retries.
+     *
+     * @param url
+     *          URL to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @return executor for the call
+     */
+    private FailsafeExecutor<Response> executorFor(final String url, final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker) {
+        final ResponseCache currentCache = responseCache;
+        if (currentCache == null || !currentCache.isStaleIfErrorEnabled()) {
+            return admittingExecutorFor(url, retryPolicy, circuitBreaker);
+        }
+        return staleIfErrorExecutor(url, currentCache, retryPolicy, circuitBreaker);
+    }
+
+    /**
+     * Returns the executor for a resilient call of the given URL with the policies of its host.
+     *
+     * @param url
+     *          URL to call
+     * @param hostPolicies
+     *          policies of the target host
+     * @return executor for the call
+     * @see #executorFor(String, RetryPolicy, CircuitBreaker)
+     */
+    private FailsafeExecutor<Response> executorFor(final String url, final PolicyRegistry.HostPolicies hostPolicies) {
+        final ResponseCache currentCache = responseCache;
+        if (currentCache == null || !currentCache.isStaleIfErrorEnabled()) {
+            return guards.length == 0 ? hostPolicies.executor(timer)
+                    : admittingExecutorFor(url, hostPolicies.getRetryPolicy(), hostPolicies.getCircuitBreaker());
+        }
+        return staleIfErrorExecutor(url, currentCache, hostPolicies.getRetryPolicy(), hostPolicies.getCircuitBreaker());
+    }
+
+    private FailsafeExecutor<Response> staleIfErrorExecutor(final String url, final ResponseCache cache,
+                                                            final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker) {
+        final List<Policy<Response>> policies = new ArrayList<>(5);
+        policies.add(retriesExhaustedFallback(url, cache));
+        policies.add(retryPolicy);
+        policies.add(circuitOpenFallback(url, cache));
+        addCircuitBreaker(policies, url, circuitBreaker);
+        return Failsafe.with(policies).with(timer);
+    }
+
+    /**
+     * Returns the executor running the retry policy around the circuit breaker for a call of the given URL. Without
+     * guards, this is the cached executor of the policies; otherwise the policies are composed per call with an
+     * {@link AttemptAdmission} in between, so rejected attempts are retried but not recorded by the breaker.
+     *
+     * @param url
+     *          URL to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @return executor for the call
+     */
+    private FailsafeExecutor<Response> admittingExecutorFor(final String url, final RetryPolicy<Response> retryPolicy,
+                                                            final CircuitBreaker<Response> circuitBreaker) {
+        final AttemptGuard[] currentGuards = guards;
+        if (currentGuards.length == 0) {
+            return executorFor(retryPolicy, circuitBreaker);
+        }
+        return Failsafe.with(retryPolicy, new AttemptAdmission(currentGuards, hostOf(url), circuitBreaker), circuitBreaker).with(timer);
+    }
+
+    /**
+     * Adds the circuit breaker to the policies of a call, preceded by the admission of the registered guards if any.
+     *
+     * @param policies
+     *          policies of the call from the outermost one
+     * @param url
+     *          URL to call
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     */
+    private void addCircuitBreaker(final List<Policy<Response>> policies, final String url, final CircuitBreaker<Response> circuitBreaker) {
+        final AttemptGuard[] currentGuards = guards;
+        if (currentGuards.length > 0) {
+            policies.add(new AttemptAdmission(currentGuards, hostOf(url), circuitBreaker));
+        }
+        policies.add(circuitBreaker);
+    }
+
+    /**
+     * Returns the executor for a resilient call of the given URL with timeouts.
+     * The policies are composed per call: the deadline outside the retry policy, so it bounds the backoff delays too,
+     * and the attempt timeout inside the circuit breaker, so timed out attempts are recorded as failures. With
+     * stale-if-error, the fallbacks are placed as in {@link #executorFor(String, RetryPolicy, CircuitBreaker)}, the
+     * outer one also covering the deadline.
+     *
+     * @param url
+     *          URL to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @param options
+     *          attempt and overall timeouts
+     * @param deadline
+     *          deadline of the call, {@code null} if there is none
+     * @return executor for the call
+     */
+    private FailsafeExecutor<Response> executorFor(final String url, final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker,
+                                                   final CallOptions options, final Deadline deadline) {
+        if (deadline == null && options.getAttemptTimeout() == null) {
+            return executorFor(url, retryPolicy, circuitBreaker);
+        }
+        final ResponseCache currentCache = responseCache;
+        final boolean staleIfError = currentCache != null && currentCache.isStaleIfErrorEnabled();
+        final List<Policy<Response>> policies = new ArrayList<>(7);
+        if (staleIfError) {
+            policies.add(retriesExhaustedFallback(url, currentCache));
+        }
+        if (deadline != null) {
+            // Failsafe rejects a zero timeout, an expired deadline times out on the first tick instead
+            policies.add(Timeout.<Response>of(Duration.ofNanos(Math.max(1, deadline.remainingNanos()))).withCancel(true));
+            policies.add(withinDeadline(retryPolicy, deadline));
+        } else {
+            policies.add(retryPolicy);
+        }
+        if (staleIfError) {
+            policies.add(circuitOpenFallback(url, currentCache));
+        }
+        addCircuitBreaker(policies, url, circuitBreaker);
+        if (options.getAttemptTimeout() != null) {
+            policies.add(Timeout.<Response>of(options.getAttemptTimeout()).withCancel(true));
+        }
+        return Failsafe.with(policies).with(timer);
+    }
+
+    /**
+     * Copies the retry policy for a call with a deadline. The copy gives up once the time left is shorter than the
+     * minimum delay of the policy, as the retry could not start in time, and cuts longer backoff delays at the deadline.
+     *
+     * @param retryPolicy
+     *          RetryPolicy to copy
+     * @param deadline
+     *          deadline of the call
+     * @return retry policy bounded by the deadline
+     */
+    private static RetryPolicy<Response> withinDeadline(final RetryPolicy<Response> retryPolicy, final Deadline deadline) {
+        final Duration minDelay = retryPolicy.getDelayMin() != null ? retryPolicy.getDelayMin() : retryPolicy.getDelay();
+        final long minDelayNanos = minDelay.toNanos();
+        final Duration remaining = deadline.remaining();
+        final Duration maxDuration = retryPolicy.getMaxDuration();
+        final RetryPolicy<Response> copy = retryPolicy.copy()
+                .abortIf((Response response, Throwable failure) -> deadline.remainingNanos() <= minDelayNanos);
+        if (maxDuration != null && maxDuration.compareTo(remaining) < 0) {
+            return copy;
+        }
+        // Failsafe rejects a max duration not above the delay, no retry could start in time anyway
+        return remaining.compareTo(retryPolicy.getDelay()) > 0 ? copy.withMaxDuration(remaining) : copy.withMaxRetries(0);
+    }
+
+    /**
+     * @return fallback to the stale response once the retries are exhausted
+     */
+    private static Fallback<Response> retriesExhaustedFallback(final String url, final ResponseCache cache) {
+        return staleFallback(url, cache)
+                .handle(Exception.class)
+                .handleResultIf((Response response) -> response.getStatus() >= 500);
+    }
+
+    /**
+     * @return fallback to the stale response while the circuit breaker of the call, or a
+     *          {@link SlidingWindowCircuitBreaker} registered as guard, is open
+     */
+    private static Fallback<Response> circuitOpenFallback(final String url, final ResponseCache cache) {
+        return staleFallback(url, cache)
+                .handle(Arrays.asList(CircuitBreakerOpenException.class, CallNotPermittedException.class));
+    }
+
+    /**
+     * Creates a fallback serving the stale response of the URL, or the original outcome if there is none.
+     *
+     * @param url
+     *          URL to call
+     * @param cache
+     *          cache holding the stale responses
+     * @return fallback policy, without failure conditions yet
+     */
+    private static Fallback<Response> staleFallback(final String url, final ResponseCache cache) {
+        return Fallback.<Response>of(event -> {
+            final Response stale = cache.getStale(url);
+            final Throwable failure = event.getLastFailure();
+            if (stale == null) {
+                if (failure == null) {
+                    return event.getLastResult();
+                }
+                if (failure instanceof Exception) {
+                    throw (Exception) failure;
+                }
+                if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw new FailsafeException(failure);
+            }
+            if (event.getLastResult() != null) {
+                event.getLastResult().close();
+            }
+            return stale;
+        });
+    }
+
+    /**
+     * Returns the cached executor composed of the given policies, building it on first use.
+     * Policies are compared by identity; the lookup does not allocate once the executor exists.
+     * The executors hold no state of their own, so callers building fresh policies per call are served by evicting an
+     * arbitrary entry once {@link #MAX_CACHED_POLICIES} is reached instead of growing the cache without bound.
+     *
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @return executor running the retry policy around the circuit breaker
+     */
+    FailsafeExecutor<Response> executorFor(final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker) {
+        ConcurrentMap<CircuitBreaker<Response>, FailsafeExecutor<Response>> byBreaker = executors.get(retryPolicy);
+        if (byBreaker == null) {
+            evictIfFull(executors);
+            byBreaker = executors.computeIfAbsent(retryPolicy, key -> new ConcurrentHashMap<>());
+        }
+        final FailsafeExecutor<Response> executor = byBreaker.get(circuitBreaker);
+        if (executor != null) {
+            return executor;
+        }
+        evictIfFull(byBreaker);
+        return byBreaker.computeIfAbsent(circuitBreaker, key -> Failsafe.with(retryPolicy, circuitBreaker).with(timer));
+    }
+
+    /**
+     * @return number of composed executors currently cached
+     */
+    int cachedExecutorCount() {
+        return executors.values().stream().mapToInt(ConcurrentMap::size).sum();
+    }
+
+    /**
+     * Removes an arbitrary entry from the given executor cache if it holds {@link #MAX_CACHED_POLICIES} entries.
+     *
+     * @param cache
+     *          one level of the executor cache
+     */
+    private static void evictIfFull(final ConcurrentMap<?, ?> cache) {
+        if (cache.size() >= MAX_CACHED_POLICIES) {
+            cache.keySet().stream().findAny().ifPresent(cache::remove);
+        }
+    }
+
+    /**
+     * Serves a resilient call from the cache or runs it through the coalescer, whichever are configured. Their
+     * responses are buffered with the message body readers of the client, so they can be read as any type the client
+     * supports.
+     *
+     * @param url
+     *          URL to call
+     * @param deadline
+     *          deadline of the call, {@code null} if there is none
+     * @param call
+     *          performs the resilient call
+     * @return HTTP response
+     */
+    private Response serve(final String url, final Deadline deadline, final Supplier<Response> call) {
+        final ResponseCache currentCache = responseCache;
+        final RequestCoalescer currentCoalescer = coalescer;
+        if (currentCache == null && currentCoalescer == null) {
+            return call.get();
+        }
+        final Supplier<Response> storingCall;
+        if (currentCache == null) {
+            storingCall = () -> entityReaders.buffer(call.get());
+        } else {
+            final Response cached = currentCache.get(url);
+            if (cached != null) {
+                return cached;
+            }
+            storingCall = () -> currentCache.put(url, entityReaders.buffer(call.get()));
+        }
+        return currentCoalescer == null ? storingCall.get() : currentCoalescer.execute(url, deadline, storingCall);
+    }
+
+    /**
+     * Serves a resilient call from the cache or starts it through the coalescer, whichever are configured.
+     *
+     * @param url
+     *          URL to call
+     * @param deadline
+     *          deadline of the call, {@code null} if there is none
+     * @param call
+     *          starts the resilient call
+     * @return future of the HTTP response
+     */
+    private CompletableFuture<Response> serveAsync(final String url, final Deadline deadline, final Supplier<CompletableFuture<Response>> call) {
+        final ResponseCache currentCache = responseCache;
+        final RequestCoalescer currentCoalescer = coalescer;
+        if (currentCache == null && currentCoalescer == null) {
+            return call.get();
+        }
+        final Supplier<CompletableFuture<Response>> storingCall;
+        if (currentCache == null) {
+            storingCall = () -> call.get().thenApply(entityReaders::buffer);
+        } else {
+            final Response cached = currentCache.get(url);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            storingCall = () -> call.get().thenApply(response -> currentCache.put(url, entityReaders.buffer(response)));
+        }
+        return currentCoalescer == null ? storingCall.get() : currentCoalescer.executeAsync(url, deadline, timer, storingCall);
+    }
+
+    /**
+     * Performs a single request of a hedged attempt, admitted by all registered guards without waiting, as hedges are
+     * sent from the timer. A rejection completes the returned future exceptionally.
+     *
+     * @param url
+     *          URL to call
+     * @param attempt
+     *          number of the attempt, starting with 1
+     * @return future of the HTTP response with a buffered entity
+     */
+    private CompletableFuture<Response> getAsync(final String url, final int attempt) {
+        final AttemptGuard[] currentGuards = guards;
+        if (currentGuards.length == 0) {
+            return getAsync(url);
+        }
+        final AttemptGuard.Permit[] permits;
+        try {
+            permits = AttemptAdmission.acquirePermits(currentGuards, hostOf(url), attempt, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(e);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        final long startNanos = System.nanoTime();
+        return getAsync(url).whenComplete((response, failure) ->
+                AttemptAdmission.releasePermits(permits, permits.length, response, failure, System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Returns the target of a URL as used to key per-host state.
+     *
+     * @param url
+     *          URL to call
+     * @return {@code host:port}, with the default port of the scheme if the URL has none
+     */
+    static String hostOf(final String url) {
+        final URI uri = URI.create(url);
+        int port = uri.getPort();
+        if (port == -1) {
+            port = "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+        }
+        return uri.getHost() + ":" + port;
+    }
+
+    private static <T> CompletableFuture<T> failed(final Throwable failure) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(failure);
+        return future;
+    }
+
+    /**
+     * Performs a single GET request on the shared client.
+     *
+     * @param url
+     *          URL to call
+     * @return HTTP response with a buffered entity
+     * @see #get(Invocation.Builder)
+     */
+    private Response get(final String url) {
+        return get(client.target(url).request());
+    }
+
+    /**
+     * Performs a single asynchronous GET request on the shared client.
+     *
+     * @param url
+     *          URL to call
+     * @return future of the HTTP response with a buffered entity
+     * @see #getAsync(Invocation.Builder)
+     */
+    private CompletableFuture<Response> getAsync(final String url) {
+        return getAsync(client.target(url).request());
+    }
+
+    /**
+     * Performs a single GET request.
+     * The response is released right away, so the connection is handed back to the pool even if the caller only looks
+     * at the status or the response is discarded by a retry.
+     *
+     * @param request
+     *          request to send
+     * @return HTTP response with a buffered entity
+     */
+    private static Response get(final Invocation.Builder request) {
+        return release(request.get());
+    }
+
+    /**
+     * Performs a single asynchronous GET request.
+     *
+     * @param request
+     *          request to send
+     * @return future of the HTTP response with a buffered entity
+     * @see #get(Invocation.Builder)
+     */
+    private static CompletableFuture<Response> getAsync(final Invocation.Builder request) {
+        return request.rx().get().toCompletableFuture().thenApply(JerseyTestClient::release);
+    }
+
+    /**
+     * Builds the request of an attempt. The connect and socket read timeouts are the attempt timeout, cut to the time
+     * left until the deadline, plus {@link #SOCKET_TIMEOUT_GRACE_MILLIS}; the Apache connector applies them to this
+     * request only. The time left is propagated in
+     * the {@value Deadline#HEADER} header, recomputed for every attempt.
+     *
+     * @param url
+     *          URL to call
+     * @param options
+     *          timeouts of the call, {@code null} for none
+     * @param deadline
+     *          deadline of the call, {@code null} if there is none
+     * @return request to send
+     */
+    private Invocation.Builder request(final String url, final CallOptions options, final Deadline deadline) {
+        final Invocation.Builder request = client.target(url).request();
+        if (options == null) {
+            return request;
+        }
+        long readTimeoutMillis = options.getAttemptTimeout() == null ? 0 : ceilMillis(options.getAttemptTimeout());
+        if (deadline != null) {
+            // a timeout of 0 means infinite for the connector, so an expired deadline still gets 1 ms
+            final long remainingMillis = Math.max(1, deadline.remaining(TimeUnit.MILLISECONDS));
+            readTimeoutMillis = readTimeoutMillis == 0 ? remainingMillis : Math.min(readTimeoutMillis, remainingMillis);
+            if (options.isDeadlinePropagation()) {
+                request.header(Deadline.HEADER, deadline.toHeaderValue());
+            }
+        }
+        long connectTimeoutMillis = options.getConnectTimeout() == null ? 0 : ceilMillis(options.getConnectTimeout());
+        if (readTimeoutMillis > 0) {
+            readTimeoutMillis += SOCKET_TIMEOUT_GRACE_MILLIS;
+            connectTimeoutMillis = connectTimeoutMillis == 0 ? readTimeoutMillis : Math.min(connectTimeoutMillis, readTimeoutMillis);
+            request.property(ClientProperties.READ_TIMEOUT, (int) Math.min(readTimeoutMillis, Integer.MAX_VALUE));
+        }
+        if (connectTimeoutMillis > 0) {
+            request.property(ClientProperties.CONNECT_TIMEOUT, (int) Math.min(connectTimeoutMillis, Integer.MAX_VALUE));
+        }
+        return request;
+    }
+
+    private static long ceilMillis(final Duration duration) {
+        final long millis = duration.toMillis();
+        return duration.minusMillis(millis).isZero() ? millis : millis + 1;
+    }
+
+    /**
+     * Performs a single hedged attempt, see {@link #executeCallHedged}. The primary request has already been admitted
+     * by the guards of the call, the backup request is admitted on its own and not sent if rejected.
+     *
+     * @param url
+     *          URL of the primary request
+     * @param hedgeUrl
+     *          URL of the backup request
+     * @param hedgePolicy
+     *          hedge delay and budget
+     * @param attempt
+     *          number of the attempt, starting with 1
+     * @return future of the winning HTTP response
+     */
+    private CompletableFuture<Response> getHedged(final String url, final String hedgeUrl, final HedgePolicy hedgePolicy, final int attempt) {
+        final HedgedAttempt hedged = new HedgedAttempt();
+        final long startNanos = System.nanoTime();
+        hedgePolicy.recordAttempt();
+
+        final ScheduledFuture<?> backup = timer.schedule(() -> {
+            if (!hedged.result.isDone() && hedgePolicy.tryAcquireHedge()) {
+                // counted before it is sent, so a primary failing meanwhile does not decide the attempt alone
+                hedged.pending.incrementAndGet();
+                final CompletableFuture<Response> hedge = getAsync(hedgeUrl, attempt);
+                if (hedge.isCompletedExceptionally()) {
+                    // rejected by a guard, the primary request alone decides the attempt
+                    hedged.withdraw();
+                    return null;
+                }
+                hedge.whenComplete(hedged::complete);
+            }
+            return null;
+        }, hedgePolicy.getHedgeDelayNanos(), TimeUnit.NANOSECONDS);
+
+        getAsync(url).whenComplete((response, failure) -> {
+            backup.cancel(false);
+            if (failure == null && response.getStatus() < 500) {
+                hedgePolicy.recordLatency(System.nanoTime() - startNanos);
+            }
+            hedged.complete(response, failure);
+        });
+
+        return hedged.result;
+    }
+
+    /**
+     * Buffers the entity of the response, or closes it if there is none, so its connection is released to the pool.
+     *
+     * @param response
+     *          HTTP response
+     * @return the same response
+     */
+    private static Response release(final Response response) {
+        if (!response.bufferEntity()) {
+            response.close();
+        }
+        return response;
+    }
+
+    /**
+     * Result of a hedged attempt and its requests in flight.
+     * A success wins immediately, a failure only once no other request is pending; until then the last failure is
+     * kept. Responses that do not become the result are closed.
+     */
+    private static final class HedgedAttempt {
+
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private Response failedResponse;
+        private Throwable failure;
+
+        /**
+         * Completes one of the requests of the attempt.
+         *
+         * @param response
+         *          response of the completed request, {@code null} on failure
+         * @param failure
+         *          failure of the completed request, {@code null} on success
+         */
+        void complete(final Response response, final Throwable failure) {
+            if (failure == null && response.getStatus() < 500) {
+                if (!result.complete(response)) {
+                    response.close();
+                }
+                pending.decrementAndGet();
+                keep(null, null);
+                return;
+            }
+            keep(response, failure);
+            if (pending.decrementAndGet() == 0) {
+                completeWithFailure();
+            }
+        }
+
+        /**
+         * Takes back a request counted as pending which has not been sent.
+         */
+        void withdraw() {
+            if (pending.decrementAndGet() == 0) {
+                completeWithFailure();
+            }
+        }
+
+        private synchronized void keep(final Response response, final Throwable failure) {
+            if (failedResponse != null) {
+                failedResponse.close();
+            }
+            this.failedResponse = response;
+            this.failure = failure;
+        }
+
+        private synchronized void completeWithFailure() {
+            final boolean completed = failure == null ? result.complete(failedResponse) : result.completeExceptionally(failure);
+            if (!completed && failedResponse != null) {
+                failedResponse.close();
+            }
+        }
+    }
+
+    /**
+     * Captures the message body readers and reader interceptors of the client from its first request, so responses
+     * buffered for the cache or the coalescer can still be read as any type the client supports.
+     */
+    private static final class EntityReaders implements ClientRequestFilter {
+
+        private volatile MessageBodyWorkers workers;
+        private volatile Iterable<ReaderInterceptor> readerInterceptors;
+
+        @Override
+        public void filter(final ClientRequestContext requestContext) {
+            if (workers == null && requestContext instanceof ClientRequest) {
+                final ClientRequest request = (ClientRequest) requestContext;
+                readerInterceptors = request.getReaderInterceptors();
+                workers = request.getWorkers();
+            }
+        }
 
+        /**
+         * @param response
+         *          response of a resilient call
+         * @return buffered response readable with the message body readers of the client
+         */
+        private BufferedResponse buffer(final Response response) {
+            return BufferedResponse.of(response, workers, readerInterceptors);
+        }
     }
 }
@@ -0,0 +1,237 @@
+package loc.chripoli.resilience_demo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with logarithmic buckets.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so a recorded value is reported with a
+ * relative error of at most 12.5% over the whole range of {@code long}, using a fixed array of counters. The counters
+ * are striped by thread, so threads recording at the same time rarely write the same cache line; reads sum up the
+ * stripes into a {@link Snapshot}, and snapshots of several histograms can be merged.
+ *
+ * @author chripoli
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS;
+    private static final int MAX_STRIPES = 8;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Creates a histogram with a stripe per available processor, at most {@value #MAX_STRIPES}.
+     */
+    public LatencyHistogram() {
+        this(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param stripes
+     *          number of counter arrays, rounded up to a power of two; 1 for rarely contended histograms
+     */
+    public LatencyHistogram(final int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be >= 1");
+        }
+        final int count = Integer.highestOneBit(stripes) == stripes ? stripes : Integer.highestOneBit(stripes) << 1;
+        this.stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Records a single value.
+     *
+     * @param nanos
+     *          latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(nanos, 0);
+        stripes[stripeOf(Thread.currentThread())].incrementAndGet(indexOf(value));
+        sum.add(value);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        long count = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                count += stripe.get(i);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the value at the given percentile, e.g. {@code 0.95} for the p95.
+     * Concurrent recordings may or may not be taken into account.
+     *
+     * @param percentile
+     *          percentile between 0 and 1
+     * @return upper bound of the bucket containing the percentile in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        return snapshot().getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Sums up the stripes. Concurrent recordings may or may not be taken into account, the recording threads are
+     * never blocked.
+     *
+     * @return counts recorded so far
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new Snapshot(counts, sum.sum());
+    }
+
+    /**
+     * Clears all recorded values.
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+        sum.reset();
+    }
+
+    @SuppressWarnings("deprecation") // Thread.threadId() replaces getId() on JDK 19+ only
+    private int stripeOf(final Thread thread) {
+        // thread ids are sequential, spread them so threads of a pool do not collide on few stripes
+        return (int) ((thread.getId() * 0x9E3779B97F4A7C15L) >>> 32) & stripeMask;
+    }
+
+    static int indexOf(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowestValueOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+    }
+
+    static long highestValueOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        final long highest = lowestValueOf(index) + (1L << shift) - 1;
+        // the very last bucket would overflow
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+
+    /**
+     * Immutable copy of the counts of a histogram at some point in time.
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(final long[] counts, final long sum) {
+            this.counts = counts;
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            this.count = total;
+            this.sum = sum;
+        }
+
+        /**
+         * @return number of recorded values
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return sum of the recorded values in nanoseconds
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @param percentile
+         *          percentile between 0 and 1, e.g. {@code 0.95} for the p95
+         * @return upper bound of the bucket containing the percentile in nanoseconds, or 0 if nothing was recorded
+         */
+        public long getValueAtPercentile(final double percentile) {
+            if (percentile < 0 || percentile > 1) {
+                throw new IllegalArgumentException("percentile must be between 0 and 1");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValueOf(i);
+                }
+            }
+            return highestValueOf(BUCKETS - 1);
+        }
+
+        /**
+         * Returns the number of values up to the given bound, e.g. for the cumulative buckets of an exported
+         * histogram. Values in the bucket containing the bound are counted as well.
+         *
+         * @param nanos
+         *          upper bound in nanoseconds
+         * @return number of recorded values less than or equal to the bound, within the error of the buckets
+         */
+        public long getCountAtOrBelow(final long nanos) {
+            if (nanos < 0) {
+                return 0;
+            }
+            final int last = indexOf(nanos);
+            long seen = 0;
+            for (int i = 0; i <= last; i++) {
+                seen += counts[i];
+            }
+            return seen;
+        }
+
+        /**
+         * @param other
+         *          snapshot to add, e.g. of the histogram of another host
+         * @return new snapshot with the counts of both
+         */
+        public Snapshot merge(final Snapshot other) {
+            final long[] merged = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, sum + other.sum);
+        }
+    }
+}
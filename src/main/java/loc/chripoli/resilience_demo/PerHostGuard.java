@@ -0,0 +1,58 @@
+package loc.chripoli.resilience_demo;
+
+import java.util.function.Function;
+
+/**
+ * Applies a separate guard per target host, e.g. {@code new PerHostGuard<>(host -> new Bulkhead(10))}.
+ *
+ * @param <G> type of the guards
+ * @author chripoli
+ */
+public class PerHostGuard<G extends AttemptGuard> implements AttemptGuard {
+
+    private final PerHostRegistry<G> registry;
+
+    /**
+     * @param factory
+     *          creates the guard for a host on first use
+     */
+    public PerHostGuard(final Function<String, ? extends G> factory) {
+        this.registry = new PerHostRegistry<>(factory);
+    }
+
+    @Override
+    public Permit acquire(final String host, final int attempt) throws InterruptedException {
+        return acquire(host, attempt, true);
+    }
+
+    @Override
+    public Permit acquireNow(final String host, final int attempt) throws InterruptedException {
+        return acquire(host, attempt, false);
+    }
+
+    private Permit acquire(final String host, final int attempt, final boolean wait) throws InterruptedException {
+        // the guard of the host is leased while its permit is in flight, so it is not evicted and replaced meanwhile
+        final PerHostRegistry.Entry<G> entry = registry.lease(host);
+        final Permit permit;
+        try {
+            permit = wait ? entry.value().acquire(host, attempt) : entry.value().acquireNow(host, attempt);
+        } catch (InterruptedException | RuntimeException e) {
+            entry.release();
+            throw e;
+        }
+        return (response, failure, latencyNanos) -> {
+            try {
+                permit.release(response, failure, latencyNanos);
+            } finally {
+                entry.release();
+            }
+        };
+    }
+
+    /**
+     * @return guards by host, e.g. to read their metrics
+     */
+    public PerHostRegistry<G> getRegistry() {
+        return registry;
+    }
+}
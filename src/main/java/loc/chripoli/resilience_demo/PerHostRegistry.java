@@ -0,0 +1,282 @@
+package loc.chripoli.resilience_demo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Lazily created instances per target host, e.g. one {@link Bulkhead} per host.
+ * <p>
+ * To keep memory bounded when calling many distinct hosts, entries can expire after a period without access and the
+ * number of entries can be capped, evicting the least recently used ones. Eviction runs on the calling threads: idle
+ * entries are swept at most once per half expiry period, the size is enforced when a new entry exceeds it. Entries
+ * rejected by the eviction filter, e.g. open circuit breakers, are never evicted, and neither are leased entries, e.g.
+ * by a {@link PerHostGuard} while one of their permits is in flight, so a host never gets a second instance next to
+ * one still in use.
+ *
+ * @param <T> type of the instances
+ * @author chripoli
+ */
+public class PerHostRegistry<T> {
+
+    /**
+     * Access times are only updated if they changed by more than this (or a tenth of the expiry period if shorter), so
+     * reads of a hot entry do not keep writing the same cache line.
+     */
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Lease count of an evicted entry.
+     */
+    private static final int RETIRED = -1;
+
+    private final ConcurrentMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final Function<String, ? extends T> factory;
+
+    private long expireAfterAccessNanos = Long.MAX_VALUE;
+    private long accessResolutionNanos = ACCESS_RESOLUTION_NANOS;
+    private int maximumSize = Integer.MAX_VALUE;
+    private Predicate<? super T> evictionFilter = value -> true;
+
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+    private final AtomicBoolean sizeEvictionRunning = new AtomicBoolean();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param factory
+     *          creates the instance for a host on first use
+     */
+    public PerHostRegistry(final Function<String, ? extends T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Evicts entries which have not been accessed for the given duration.
+     *
+     * @param expireAfterAccess
+     *          idle duration after which an entry is evicted
+     * @return this registry
+     */
+    public PerHostRegistry<T> withExpireAfterAccess(final Duration expireAfterAccess) {
+        if (expireAfterAccess == null || expireAfterAccess.isNegative() || expireAfterAccess.isZero()) {
+            throw new IllegalArgumentException("expireAfterAccess must be > 0");
+        }
+        this.expireAfterAccessNanos = expireAfterAccess.toNanos();
+        this.accessResolutionNanos = Math.min(ACCESS_RESOLUTION_NANOS, expireAfterAccessNanos / 10);
+        return this;
+    }
+
+    /**
+     * Caps the number of entries, evicting the least recently used ones beyond it.
+     *
+     * @param maximumSize
+     *          maximum number of entries
+     * @return this registry
+     */
+    public PerHostRegistry<T> withMaximumSize(final int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be >= 1");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * Restricts eviction to instances matching the filter.
+     *
+     * @param evictionFilter
+     *          returns {@code true} if an instance may be evicted
+     * @return this registry
+     */
+    public PerHostRegistry<T> withEvictionFilter(final Predicate<? super T> evictionFilter) {
+        this.evictionFilter = evictionFilter;
+        return this;
+    }
+
+    /**
+     * Returns the instance for the given host, creating it on first use.
+     *
+     * @param host
+     *          target as {@code host:port}
+     * @return instance for the host
+     */
+    public T get(final String host) {
+        return entryFor(host).value;
+    }
+
+    /**
+     * Returns the entry for the given host like {@link #get(String)}, leased so it is not evicted before
+     * {@link Entry#release()}.
+     *
+     * @param host
+     *          target as {@code host:port}
+     * @return leased entry for the host
+     */
+    Entry<T> lease(final String host) {
+        while (true) {
+            final Entry<T> entry = entryFor(host);
+            for (int leases = entry.leases.get(); leases != RETIRED; leases = entry.leases.get()) {
+                if (entry.leases.compareAndSet(leases, leases + 1)) {
+                    return entry;
+                }
+            }
+            // evicted right after the lookup, the next one finds or creates its successor
+        }
+    }
+
+    private Entry<T> entryFor(final String host) {
+        final long now = System.nanoTime();
+        Entry<T> entry = entries.get(host);
+        if (entry == null) {
+            entry = entries.computeIfAbsent(host, key -> new Entry<>(factory.apply(key), now));
+            if (entries.size() > maximumSize) {
+                evictLeastRecentlyUsed(entry);
+            }
+        } else if (now - entry.lastAccessNanos > accessResolutionNanos) {
+            entry.lastAccessNanos = now;
+        }
+
+        final long lastSweep = lastSweepNanos.get();
+        if (expireAfterAccessNanos != Long.MAX_VALUE && now - lastSweep >= expireAfterAccessNanos / 2
+                && lastSweepNanos.compareAndSet(lastSweep, now)) {
+            evictIdle();
+        }
+        return entry;
+    }
+
+    /**
+     * Evicts all entries which have not been accessed within the expiry period.
+     */
+    public void evictIdle() {
+        final long now = System.nanoTime();
+        for (Map.Entry<String, Entry<T>> mapEntry : entries.entrySet()) {
+            final Entry<T> entry = mapEntry.getValue();
+            if (now - entry.lastAccessNanos > expireAfterAccessNanos && evictionFilter.test(entry.value)
+                    && entry.retire() && entries.remove(mapEntry.getKey(), entry)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of evicted entries
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return snapshot of all instances by host
+     */
+    public Map<String, T> asMap() {
+        final Map<String, T> snapshot = new HashMap<>();
+        entries.forEach((host, entry) -> snapshot.put(host, entry.value));
+        return snapshot;
+    }
+
+    /**
+     * Evicts the least recently used entries until the registry is 10% below its maximum size, so the sort is
+     * amortized over many insertions. Only one thread evicts at a time.
+     *
+     * @param inserted
+     *          entry whose insertion exceeded the size, kept as its caller is about to use or lease it
+     */
+    private void evictLeastRecentlyUsed(final Entry<T> inserted) {
+        if (!sizeEvictionRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final List<Candidate<T>> candidates = new ArrayList<>();
+            for (Map.Entry<String, Entry<T>> mapEntry : entries.entrySet()) {
+                if (mapEntry.getValue() != inserted && evictionFilter.test(mapEntry.getValue().value)) {
+                    candidates.add(new Candidate<>(mapEntry.getKey(), mapEntry.getValue()));
+                }
+            }
+            candidates.sort(Comparator.comparingLong(candidate -> candidate.lastAccessNanos));
+            final int target = maximumSize - maximumSize / 10;
+            for (Candidate<T> candidate : candidates) {
+                if (entries.size() <= target) {
+                    break;
+                }
+                if (candidate.entry.retire() && entries.remove(candidate.host, candidate.entry)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            sizeEvictionRunning.set(false);
+        }
+    }
+
+    /**
+     * Instance of a host with its access time and the number of its leases.
+     */
+    static final class Entry<T> {
+
+        private final T value;
+        private volatile long lastAccessNanos;
+        private final AtomicInteger leases = new AtomicInteger();
+
+        private Entry(final T value, final long lastAccessNanos) {
+            this.value = value;
+            this.lastAccessNanos = lastAccessNanos;
+        }
+
+        /**
+         * @return instance of the host
+         */
+        T value() {
+            return value;
+        }
+
+        /**
+         * Releases a lease taken by {@link PerHostRegistry#lease(String)}.
+         */
+        void release() {
+            leases.decrementAndGet();
+        }
+
+        /**
+         * Marks the entry as evicted unless it is leased. A retired entry cannot be leased anymore.
+         *
+         * @return {@code true} if the entry may be removed
+         */
+        private boolean retire() {
+            return leases.compareAndSet(0, RETIRED);
+        }
+    }
+
+    /**
+     * Entry considered for eviction, with its access time fixed for sorting.
+     */
+    private static final class Candidate<T> {
+
+        private final String host;
+        private final Entry<T> entry;
+        private final long lastAccessNanos;
+
+        private Candidate(final String host, final Entry<T> entry) {
+            this.host = host;
+            this.entry = entry;
+            this.lastAccessNanos = entry.lastAccessNanos;
+        }
+    }
+}
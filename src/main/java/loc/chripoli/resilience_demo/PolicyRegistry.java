@@ -0,0 +1,142 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+import net.jodah.failsafe.Failsafe;
+import net.jodah.failsafe.FailsafeExecutor;
+import net.jodah.failsafe.RetryPolicy;
+import net.jodah.failsafe.util.concurrent.Scheduler;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Retry policy and circuit breaker per target host, created lazily from templates.
+ * <p>
+ * One broken host only opens its own circuit breaker, while all calls to the same host share one. Entries of hosts
+ * which have not been called for a while are evicted, unless their circuit breaker is not closed or a call is still
+ * using them, so memory stays
+ * bounded when calling many distinct hosts. A registry is meant to be used by a single {@link JerseyTestClient}.
+ *
+ * @author chripoli
+ * @see JerseyTestClient#executeCall(String, PolicyRegistry)
+ */
+public class PolicyRegistry {
+
+    private final PerHostRegistry<HostPolicies> registry;
+
+    /**
+     * @param retryPolicyTemplate
+     *          creates the retry policy for a host ({@code host:port}) on first use
+     * @param circuitBreakerTemplate
+     *          creates the circuit breaker for a host ({@code host:port}) on first use
+     */
+    public PolicyRegistry(final Function<String, RetryPolicy<Response>> retryPolicyTemplate,
+                          final Function<String, CircuitBreaker<Response>> circuitBreakerTemplate) {
+        this.registry = new PerHostRegistry<>(host -> new HostPolicies(retryPolicyTemplate.apply(host), circuitBreakerTemplate.apply(host)));
+        this.registry.withEvictionFilter(policies -> policies.getCircuitBreaker().isClosed());
+    }
+
+    /**
+     * Evicts the policies of hosts which have not been called for the given duration.
+     *
+     * @param expireAfterAccess
+     *          idle duration after which the policies of a host are evicted
+     * @return this registry
+     */
+    public PolicyRegistry withExpireAfterAccess(final Duration expireAfterAccess) {
+        registry.withExpireAfterAccess(expireAfterAccess);
+        return this;
+    }
+
+    /**
+     * Caps the number of hosts, evicting the least recently called ones beyond it.
+     *
+     * @param maximumSize
+     *          maximum number of hosts
+     * @return this registry
+     */
+    public PolicyRegistry withMaximumSize(final int maximumSize) {
+        registry.withMaximumSize(maximumSize);
+        return this;
+    }
+
+    /**
+     * Returns the policies for the given host, creating them on first use.
+     *
+     * @param host
+     *          target as {@code host:port}
+     * @return policies of the host
+     */
+    public HostPolicies get(final String host) {
+        return registry.get(host);
+    }
+
+    /**
+     * Returns the policies for the given host like {@link #get(String)}, leased for a call so they are not evicted
+     * before {@link PerHostRegistry.Entry#release()}.
+     *
+     * @param host
+     *          target as {@code host:port}
+     * @return leased policies of the host
+     */
+    PerHostRegistry.Entry<HostPolicies> lease(final String host) {
+        return registry.lease(host);
+    }
+
+    /**
+     * @return snapshot of the policies by host
+     */
+    public Map<String, HostPolicies> asMap() {
+        return registry.asMap();
+    }
+
+    /**
+     * @return number of hosts with policies
+     */
+    public int size() {
+        return registry.size();
+    }
+
+    /**
+     * Retry policy and circuit breaker of a single host.
+     */
+    public static class HostPolicies {
+
+        private final RetryPolicy<Response> retryPolicy;
+        private final CircuitBreaker<Response> circuitBreaker;
+        private volatile FailsafeExecutor<Response> executor;
+
+        HostPolicies(final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker) {
+            this.retryPolicy = retryPolicy;
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        public RetryPolicy<Response> getRetryPolicy() {
+            return retryPolicy;
+        }
+
+        public CircuitBreaker<Response> getCircuitBreaker() {
+            return circuitBreaker;
+        }
+
+        /**
+         * Returns the executor composed of the policies, building it on first use. It lives and is evicted together
+         * with the policies.
+         *
+         * @param scheduler
+         *          scheduler for asynchronous executions
+         * @return executor running the retry policy around the circuit breaker
+         */
+        FailsafeExecutor<Response> executor(final Scheduler scheduler) {
+            FailsafeExecutor<Response> current = executor;
+            if (current == null) {
+                // benign race: concurrent first calls may build an executor each, both are equivalent
+                current = Failsafe.with(retryPolicy, circuitBreaker).with(scheduler);
+                executor = current;
+            }
+            return current;
+        }
+    }
+}
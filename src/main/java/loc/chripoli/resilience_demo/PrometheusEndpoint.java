@@ -0,0 +1,189 @@
+package loc.chripoli.resilience_demo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import net.jodah.failsafe.CircuitBreaker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiny in-process HTTP endpoint serving a {@link ResilienceMetrics} registry in the Prometheus text exposition format
+ * at {@code /metrics}, for environments without a metrics library.
+ * <p>
+ * Per host, it exports the attempt counters and the latency histogram of the attempts with fixed buckets from 1 ms to
+ * 10 s; per circuit breaker, its state, transitions and time in state. Every scrape renders a fresh snapshot on the
+ * single thread of the endpoint: counters are summed up and histograms copied without locks, so the threads recording
+ * the metrics are never blocked by a scrape. As the histogram buckets of the registry are logarithmic, the exported
+ * bucket counts carry their relative error of at most 12.5% around the bucket bounds.
+ *
+ * @author chripoli
+ */
+public class PrometheusEndpoint implements Closeable {
+
+    /**
+     * Path the metrics are served at.
+     */
+    public static final String PATH = "/metrics";
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] BUCKET_SECONDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ResilienceMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts serving the metrics.
+     *
+     * @param metrics
+     *          registry to export
+     * @param address
+     *          address to listen on, port 0 for any free port
+     * @throws IOException
+     *          if the server could not be bound to the address
+     */
+    public PrometheusEndpoint(final ResilienceMetrics metrics, final InetSocketAddress address) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "prometheus-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return port the endpoint listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the endpoint, without waiting for scrapes in progress.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final byte[] body = render(metrics).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Renders a snapshot of the registry in the Prometheus text exposition format.
+     *
+     * @param metrics
+     *          registry to render
+     * @return metrics as text, hosts and breakers sorted by name
+     */
+    static String render(final ResilienceMetrics metrics) {
+        final Map<String, ResilienceMetrics.HostMetrics> hosts = new TreeMap<>(metrics.getHostMetrics());
+        final Map<String, ResilienceMetrics.BreakerMetrics> breakers = new TreeMap<>(metrics.getBreakerMetrics());
+        final StringBuilder text = new StringBuilder(1024);
+
+        header(text, "resilience_attempts_total", "counter", "Attempts of resilient calls, retries included.");
+        hosts.forEach((host, hostMetrics) -> sample(text, "resilience_attempts_total", "host", host, hostMetrics.getAttemptCount()));
+        header(text, "resilience_retries_total", "counter", "Attempts after the first of their call.");
+        hosts.forEach((host, hostMetrics) -> sample(text, "resilience_retries_total", "host", host, hostMetrics.getRetryCount()));
+        header(text, "resilience_successes_total", "counter", "Attempts with a response status below 500.");
+        hosts.forEach((host, hostMetrics) -> sample(text, "resilience_successes_total", "host", host, hostMetrics.getSuccessCount()));
+        header(text, "resilience_failures_total", "counter", "Attempts failed with an exception or a response status of 500 or above.");
+        hosts.forEach((host, hostMetrics) -> sample(text, "resilience_failures_total", "host", host, hostMetrics.getFailureCount()));
+        header(text, "resilience_rejections_total", "counter", "Attempts rejected by a guard.");
+        hosts.forEach((host, hostMetrics) -> sample(text, "resilience_rejections_total", "host", host, hostMetrics.getRejectedCount()));
+
+        header(text, "resilience_attempt_duration_seconds", "histogram", "Latency of the attempts sent.");
+        hosts.forEach((host, hostMetrics) -> {
+            final LatencyHistogram.Snapshot latencies = hostMetrics.getLatencies().snapshot();
+            final String labels = "host=\"" + escape(host) + "\"";
+            for (double bound : BUCKET_SECONDS) {
+                text.append("resilience_attempt_duration_seconds_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                        .append(latencies.getCountAtOrBelow(Math.round(bound * NANOS_PER_SECOND))).append('\n');
+            }
+            text.append("resilience_attempt_duration_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ")
+                    .append(latencies.getCount()).append('\n');
+            text.append("resilience_attempt_duration_seconds_sum{").append(labels).append("} ")
+                    .append(latencies.getSum() / NANOS_PER_SECOND).append('\n');
+            text.append("resilience_attempt_duration_seconds_count{").append(labels).append("} ")
+                    .append(latencies.getCount()).append('\n');
+        });
+
+        header(text, "resilience_circuit_breaker_state", "gauge", "1 for the current state of the circuit breaker, 0 otherwise.");
+        breakers.forEach((name, breaker) -> {
+            final CircuitBreaker.State current = breaker.getState();
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                breakerSample(text, "resilience_circuit_breaker_state", name, state, state == current ? 1 : 0);
+            }
+        });
+        header(text, "resilience_circuit_breaker_transitions_total", "counter", "Transitions of the circuit breaker into the state.");
+        breakers.forEach((name, breaker) -> {
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                breakerSample(text, "resilience_circuit_breaker_transitions_total", name, state, breaker.getTransitionCount(state));
+            }
+        });
+        header(text, "resilience_circuit_breaker_state_seconds_total", "counter", "Time the circuit breaker spent in the state.");
+        breakers.forEach((name, breaker) -> {
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                breakerSample(text, "resilience_circuit_breaker_state_seconds_total", name, state,
+                        breaker.getTimeInState(state).toNanos() / NANOS_PER_SECOND);
+            }
+        });
+        return text.toString();
+    }
+
+    private static void header(final StringBuilder text, final String name, final String type, final String help) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder text, final String name, final String label, final String value, final long sample) {
+        text.append(name).append('{').append(label).append("=\"").append(escape(value)).append("\"} ").append(sample).append('\n');
+    }
+
+    private static void breakerSample(final StringBuilder text, final String name, final String breaker, final CircuitBreaker.State state,
+                                      final Number sample) {
+        text.append(name).append("{name=\"").append(escape(breaker)).append("\",state=\"").append(state.name().toLowerCase(Locale.ROOT))
+                .append("\"} ").append(sample).append('\n');
+    }
+
+    /**
+     * Escapes a label value as required by the exposition format.
+     */
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,21 @@
+package loc.chripoli.resilience_demo;
+
+/**
+ * Thrown if a {@link RateLimiter} has no permit available within the allowed wait.
+ *
+ * @author chripoli
+ */
+public class RateLimitExceededException extends AttemptRejectedException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param host
+     *          target of the rejected attempt
+     * @param message
+     *          reason of the rejection
+     */
+    public RateLimitExceededException(final String host, final String message) {
+        super(host, message);
+    }
+}
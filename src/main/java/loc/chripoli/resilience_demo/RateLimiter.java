@@ -0,0 +1,191 @@
+package loc.chripoli.resilience_demo;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free token bucket limiting the rate of attempts, including all retries.
+ * <p>
+ * The bucket is kept in its virtual scheduling form (GCRA): instead of a token count and a refill timestamp, the whole
+ * state is the theoretical arrival time of the next permit, a single {@code long} updated by CAS. Each permit pushes it
+ * one emission interval further; a permit is available as long as it lies no more than the burst tolerance ahead of
+ * now. This is equivalent to a bucket of {@code burst} tokens refilled at the configured rate.
+ * <ul>
+ *     <li>{@link #smooth(double)} spaces permits evenly, nothing is saved up while idle</li>
+ *     <li>{@link #bursty(double, int)} lets up to {@code burst} permits pass at once after an idle period</li>
+ * </ul>
+ * By default an attempt without an available permit is rejected with a {@link RateLimitExceededException}, with
+ * {@link #withMaxWait(Duration)} it reserves the next permit and waits for it if that is within the timeout;
+ * asynchronous attempts never wait, see {@link #acquireNow(String, int)}. Use a {@link PerHostGuard} to limit every
+ * host separately.
+ *
+ * @author chripoli
+ */
+public class RateLimiter implements AttemptGuard {
+
+    private static final Permit NO_OP = (response, failure, latencyNanos) -> { };
+
+    private final double permitsPerSecond;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final long originNanos = System.nanoTime();
+    private final AtomicLong theoreticalArrivalNanos;
+    private long maxWaitNanos;
+
+    private final LongAdder permittedCalls = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    private RateLimiter(final double permitsPerSecond, final int burst) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be > 0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be >= 1");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        // start with a full bucket
+        this.theoreticalArrivalNanos = new AtomicLong(-toleranceNanos);
+    }
+
+    /**
+     * Creates a limiter spacing permits evenly.
+     *
+     * @param permitsPerSecond
+     *          rate of permits
+     * @return rate limiter
+     */
+    public static RateLimiter smooth(final double permitsPerSecond) {
+        return new RateLimiter(permitsPerSecond, 1);
+    }
+
+    /**
+     * Creates a limiter allowing bursts.
+     *
+     * @param permitsPerSecond
+     *          sustained rate of permits
+     * @param burst
+     *          number of permits that may pass at once after an idle period
+     * @return rate limiter
+     */
+    public static RateLimiter bursty(final double permitsPerSecond, final int burst) {
+        return new RateLimiter(permitsPerSecond, burst);
+    }
+
+    /**
+     * Lets attempts wait for their permit instead of rejecting them immediately.
+     *
+     * @param maxWait
+     *          maximum time to wait for a permit
+     * @return this limiter
+     */
+    public RateLimiter withMaxWait(final Duration maxWait) {
+        if (maxWait == null || maxWait.isNegative()) {
+            throw new IllegalArgumentException("maxWait must be >= 0");
+        }
+        this.maxWaitNanos = maxWait.toNanos();
+        return this;
+    }
+
+    /**
+     * Takes a permit if one is available right now.
+     *
+     * @return {@code true} if a permit was taken
+     */
+    public boolean tryAcquire() {
+        final long now = System.nanoTime() - originNanos;
+        while (true) {
+            final long arrival = theoreticalArrivalNanos.get();
+            if (arrival - now > toleranceNanos) {
+                rejectedCalls.increment();
+                return false;
+            }
+            if (theoreticalArrivalNanos.compareAndSet(arrival, Math.max(arrival, now) + intervalNanos)) {
+                permittedCalls.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserves the next permit if it becomes available within the timeout and waits for it.
+     *
+     * @param timeout
+     *          maximum time to wait
+     * @param unit
+     *          unit of the timeout
+     * @return {@code true} if a permit was taken, {@code false} if none is available in time (nothing is reserved then)
+     * @throws InterruptedException
+     *          if interrupted while waiting; the reserved permit is lost
+     */
+    public boolean tryAcquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long timeoutNanos = unit.toNanos(timeout);
+        final long now = System.nanoTime() - originNanos;
+        long waitNanos;
+        while (true) {
+            final long arrival = theoreticalArrivalNanos.get();
+            waitNanos = Math.max(0, arrival - toleranceNanos - now);
+            if (waitNanos > timeoutNanos) {
+                rejectedCalls.increment();
+                return false;
+            }
+            if (theoreticalArrivalNanos.compareAndSet(arrival, Math.max(arrival, now) + intervalNanos)) {
+                break;
+            }
+        }
+        permittedCalls.increment();
+        if (waitNanos > 0) {
+            totalWaitNanos.add(waitNanos);
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    @Override
+    public Permit acquire(final String host, final int attempt) throws InterruptedException {
+        if (maxWaitNanos == 0) {
+            return acquireNow(host, attempt);
+        }
+        if (!tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+            throw rateLimitExceeded(host);
+        }
+        return NO_OP;
+    }
+
+    @Override
+    public Permit acquireNow(final String host, final int attempt) {
+        if (!tryAcquire()) {
+            throw rateLimitExceeded(host);
+        }
+        return NO_OP;
+    }
+
+    private RateLimitExceededException rateLimitExceeded(final String host) {
+        return new RateLimitExceededException(host, "Rate limit of " + permitsPerSecond + " calls/s exceeded");
+    }
+
+    /**
+     * @return number of permits handed out
+     */
+    public long getPermittedCount() {
+        return permittedCalls.sum();
+    }
+
+    /**
+     * @return number of rejected requests for a permit
+     */
+    public long getRejectedCount() {
+        return rejectedCalls.sum();
+    }
+
+    /**
+     * @return total time spent waiting for reserved permits in nanoseconds
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.sum();
+    }
+}
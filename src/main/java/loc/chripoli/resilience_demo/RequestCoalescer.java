@@ -0,0 +1,209 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.FailsafeException;
+import net.jodah.failsafe.Timeout;
+import net.jodah.failsafe.TimeoutExceededException;
+import net.jodah.failsafe.util.concurrent.Scheduler;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical GET calls into a single upstream call (single flight).
+ * <p>
+ * The first caller of a URL becomes the leader and runs the call, including its whole retry sequence. Callers of the
+ * same URL arriving while it is in flight do not send requests of their own but wait for the leader's outcome: every
+ * caller receives its own copy of the {@link BufferedResponse}, or the leader's exception. Waiters share the leader's
+ * retry policy and circuit breaker, whatever they passed themselves. A waiter with a deadline of its own stops waiting
+ * once it passes and fails with a {@link TimeoutExceededException}, while the leader's call goes on for the others.
+ * Calls arriving after the outcome is known start a new flight, nothing is cached.
+ *
+ * @author chripoli
+ * @see JerseyTestClient#withRequestCoalescing(RequestCoalescer)
+ */
+public class RequestCoalescer {
+
+    private final ConcurrentMap<String, CompletableFuture<BufferedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder leaderCalls = new LongAdder();
+    private final LongAdder coalescedCalls = new LongAdder();
+
+    /**
+     * Runs the call unless an identical one is in flight, blocking until the outcome is known.
+     *
+     * @param url
+     *          URL identifying the call
+     * @param deadline
+     *          deadline of the caller, {@code null} to wait as long as the leader's call takes
+     * @param call
+     *          performs the call, run only by the leader
+     * @return own copy of the response
+     */
+    Response execute(final String url, final Deadline deadline, final Supplier<Response> call) {
+        final CompletableFuture<BufferedResponse> flight = new CompletableFuture<>();
+        final CompletableFuture<BufferedResponse> existing = inFlight.putIfAbsent(url, flight);
+        if (existing != null) {
+            coalescedCalls.increment();
+            return await(existing, deadline).copy();
+        }
+        leaderCalls.increment();
+        try {
+            final BufferedResponse response = BufferedResponse.of(call.get());
+            flight.complete(response);
+            return response.copy();
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(url, flight);
+        }
+    }
+
+    /**
+     * Starts the call unless an identical one is in flight.
+     *
+     * @param url
+     *          URL identifying the call
+     * @param deadline
+     *          deadline of the caller, {@code null} to wait as long as the leader's call takes
+     * @param scheduler
+     *          schedules the expiry of the deadline
+     * @param call
+     *          starts the call, run only by the leader
+     * @return future completed with an own copy of the response
+     */
+    CompletableFuture<Response> executeAsync(final String url, final Deadline deadline, final Scheduler scheduler,
+                                             final Supplier<CompletableFuture<Response>> call) {
+        final CompletableFuture<BufferedResponse> flight = new CompletableFuture<>();
+        final CompletableFuture<BufferedResponse> existing = inFlight.putIfAbsent(url, flight);
+        if (existing != null) {
+            coalescedCalls.increment();
+            final CompletableFuture<Response> copy = existing.thenApply(BufferedResponse::copy);
+            return deadline == null ? copy : within(copy, deadline, scheduler);
+        }
+        leaderCalls.increment();
+        final CompletableFuture<Response> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(url, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+        started.whenComplete((response, failure) -> {
+            inFlight.remove(url, flight);
+            if (failure != null) {
+                flight.completeExceptionally(failure);
+                return;
+            }
+            try {
+                flight.complete(BufferedResponse.of(response));
+            } catch (RuntimeException e) {
+                flight.completeExceptionally(e);
+            }
+        });
+        return flight.<Response>thenApply(BufferedResponse::copy);
+    }
+
+    /**
+     * @return number of calls sent upstream
+     */
+    public long getLeaderCount() {
+        return leaderCalls.sum();
+    }
+
+    /**
+     * @return number of calls served by the outcome of an identical call in flight
+     */
+    public long getCoalescedCount() {
+        return coalescedCalls.sum();
+    }
+
+    /**
+     * @return number of distinct URLs currently in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Waits for the outcome of the flight, at most until the deadline.
+     *
+     * @param flight
+     *          flight of the leader
+     * @param deadline
+     *          deadline of the waiter, {@code null} for none
+     * @return response of the leader
+     */
+    private static BufferedResponse await(final CompletableFuture<BufferedResponse> flight, final Deadline deadline) {
+        try {
+            if (deadline == null) {
+                return flight.join();
+            }
+            final long remainingNanos = deadline.remainingNanos();
+            try {
+                return flight.get(remainingNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                throw timeoutExceeded(remainingNanos);
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FailsafeException(e);
+            }
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Completes a copy of the waiter's response, or with a timeout once the deadline passes.
+     *
+     * @param copy
+     *          future of the waiter's copy of the response
+     * @param deadline
+     *          deadline of the waiter
+     * @param scheduler
+     *          schedules the expiry of the deadline
+     * @return future completed with the copy or the timeout, whichever comes first
+     */
+    private static CompletableFuture<Response> within(final CompletableFuture<Response> copy, final Deadline deadline, final Scheduler scheduler) {
+        final CompletableFuture<Response> waiter = new CompletableFuture<>();
+        final long remainingNanos = deadline.remainingNanos();
+        final ScheduledFuture<?> expiry = scheduler.schedule(() -> waiter.completeExceptionally(timeoutExceeded(remainingNanos)),
+                Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+        copy.whenComplete((response, failure) -> {
+            expiry.cancel(false);
+            if (failure != null) {
+                waiter.completeExceptionally(failure);
+            } else if (!waiter.complete(response)) {
+                response.close();
+            }
+        });
+        return waiter;
+    }
+
+    private static TimeoutExceededException timeoutExceeded(final long remainingNanos) {
+        // Failsafe rejects a zero timeout
+        return new TimeoutExceededException(Timeout.of(Duration.ofNanos(Math.max(1, remainingNanos))));
+    }
+
+    private static RuntimeException rethrow(final Throwable failure) {
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            return (RuntimeException) failure;
+        }
+        return new CompletionException(failure);
+    }
+}
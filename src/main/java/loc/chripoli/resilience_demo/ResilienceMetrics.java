@@ -0,0 +1,299 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of resilient calls per target host and per circuit breaker.
+ * <p>
+ * Registered as the first guard of a client with {@link JerseyTestClient#withGuard(AttemptGuard)}, the registry sees
+ * every attempt of the resilient calls: it counts attempts, retries (every attempt after the first of a call),
+ * successes (a response with a status below 500), failures and attempts rejected by the guards registered after it,
+ * and records the latency of the attempts actually sent. It never rejects an attempt itself. Counters are
+ * {@link LongAdder}s and latencies go to a striped {@link LatencyHistogram}, so recording takes a few uncontended
+ * increments on the calling thread and does not allocate once a host is known.
+ * <p>
+ * Circuit breakers are tracked once {@link #instrument(String, CircuitBreaker) instrumented}: their state, the number
+ * of transitions into every state and the time spent in every state. Transitions are rare, so they are recorded under
+ * a lock per breaker.
+ *
+ * @author chripoli
+ */
+public class ResilienceMetrics implements AttemptGuard {
+
+    private final PerHostRegistry<HostMetrics> hosts = new PerHostRegistry<>(host -> new HostMetrics());
+    private final ConcurrentMap<String, BreakerMetrics> breakers = new ConcurrentHashMap<>();
+
+    /**
+     * Drops the metrics of hosts which have not been called for the given duration.
+     *
+     * @param expireAfterAccess
+     *          idle duration after which the metrics of a host are dropped
+     * @return this registry
+     */
+    public ResilienceMetrics withExpireAfterAccess(final Duration expireAfterAccess) {
+        hosts.withExpireAfterAccess(expireAfterAccess);
+        return this;
+    }
+
+    /**
+     * Caps the number of hosts, dropping the metrics of the least recently called ones beyond it.
+     *
+     * @param maximumSize
+     *          maximum number of hosts
+     * @return this registry
+     */
+    public ResilienceMetrics withMaximumSize(final int maximumSize) {
+        hosts.withMaximumSize(maximumSize);
+        return this;
+    }
+
+    @Override
+    public Permit acquire(final String host, final int attempt) {
+        // the metrics of the host are leased until the attempt completed, so its outcome is not recorded on evicted ones
+        final PerHostRegistry.Entry<HostMetrics> entry = hosts.lease(host);
+        final HostMetrics metrics = entry.value();
+        if (metrics.entry == null) {
+            // every entry has metrics of its own
+            metrics.entry = entry;
+        }
+        metrics.attempts.increment();
+        if (attempt > 1) {
+            metrics.retries.increment();
+        }
+        return metrics.permit;
+    }
+
+    /**
+     * Tracks the state transitions of a Failsafe circuit breaker. Failsafe keeps a single listener per event, so this
+     * replaces the {@code onOpen}, {@code onHalfOpen} and {@code onClose} listeners registered before.
+     *
+     * @param name
+     *          name of the breaker, e.g. its host; replaces the metrics of a breaker instrumented under the same name
+     * @param circuitBreaker
+     *          breaker to track
+     * @return the breaker
+     */
+    public CircuitBreaker<Response> instrument(final String name, final CircuitBreaker<Response> circuitBreaker) {
+        final BreakerMetrics metrics = new BreakerMetrics(circuitBreaker.getState(), circuitBreaker::open, circuitBreaker::close);
+        circuitBreaker.onOpen(() -> metrics.transitionTo(CircuitBreaker.State.OPEN))
+                .onHalfOpen(() -> metrics.transitionTo(CircuitBreaker.State.HALF_OPEN))
+                .onClose(() -> metrics.transitionTo(CircuitBreaker.State.CLOSED));
+        breakers.put(name, metrics);
+        return circuitBreaker;
+    }
+
+    /**
+     * Tracks the state transitions of a sliding window circuit breaker, in addition to its other listeners.
+     *
+     * @param name
+     *          name of the breaker, e.g. its host; replaces the metrics of a breaker instrumented under the same name
+     * @param circuitBreaker
+     *          breaker to track
+     * @return the breaker
+     */
+    public SlidingWindowCircuitBreaker instrument(final String name, final SlidingWindowCircuitBreaker circuitBreaker) {
+        final BreakerMetrics metrics = new BreakerMetrics(CircuitBreaker.State.valueOf(circuitBreaker.getState().name()),
+                circuitBreaker::open, circuitBreaker::close);
+        circuitBreaker.onOpen(() -> metrics.transitionTo(CircuitBreaker.State.OPEN))
+                .onHalfOpen(() -> metrics.transitionTo(CircuitBreaker.State.HALF_OPEN))
+                .onClose(() -> metrics.transitionTo(CircuitBreaker.State.CLOSED));
+        breakers.put(name, metrics);
+        return circuitBreaker;
+    }
+
+    /**
+     * @return snapshot of the metrics by host ({@code host:port})
+     */
+    public Map<String, HostMetrics> getHostMetrics() {
+        return hosts.asMap();
+    }
+
+    /**
+     * @return snapshot of the metrics by breaker name
+     */
+    public Map<String, BreakerMetrics> getBreakerMetrics() {
+        return Collections.unmodifiableMap(new HashMap<>(breakers));
+    }
+
+    /**
+     * Counters and latencies of the attempts to a single host.
+     */
+    public static class HostMetrics {
+
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder rejections = new LongAdder();
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final Permit permit = this::release;
+        private volatile PerHostRegistry.Entry<HostMetrics> entry;
+
+        HostMetrics() {
+        }
+
+        private void release(final Response response, final Throwable failure, final long latencyNanos) {
+            try {
+                record(response, failure, latencyNanos);
+            } finally {
+                entry.release();
+            }
+        }
+
+        private void record(final Response response, final Throwable failure, final long latencyNanos) {
+            if (failure instanceof AttemptRejectedException) {
+                // never sent, its latency would only skew the histogram
+                rejections.increment();
+                return;
+            }
+            if (failure == null && response.getStatus() < 500) {
+                successes.increment();
+            } else {
+                failures.increment();
+            }
+            latencies.record(latencyNanos);
+        }
+
+        /**
+         * @return number of attempts, retries included
+         */
+        public long getAttemptCount() {
+            return attempts.sum();
+        }
+
+        /**
+         * @return number of attempts after the first of their call
+         */
+        public long getRetryCount() {
+            return retries.sum();
+        }
+
+        /**
+         * @return number of attempts with a response status below 500
+         */
+        public long getSuccessCount() {
+            return successes.sum();
+        }
+
+        /**
+         * @return number of attempts failed with an exception or a response status of 500 or above
+         */
+        public long getFailureCount() {
+            return failures.sum();
+        }
+
+        /**
+         * @return number of attempts rejected by a guard
+         */
+        public long getRejectedCount() {
+            return rejections.sum();
+        }
+
+        /**
+         * @return latencies of the attempts sent
+         */
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+    }
+
+    /**
+     * State, transitions and time in state of a single circuit breaker, with manual control over the breaker.
+     */
+    public static class BreakerMetrics {
+
+        private final long[] transitions = new long[CircuitBreaker.State.values().length];
+        private final long[] timeInStateNanos = new long[CircuitBreaker.State.values().length];
+        private final Runnable open;
+        private final Runnable close;
+        private CircuitBreaker.State state;
+        private long stateSinceNanos = System.nanoTime();
+
+        BreakerMetrics(final CircuitBreaker.State state, final Runnable open, final Runnable close) {
+            this.state = state;
+            this.open = open;
+            this.close = close;
+        }
+
+        /**
+         * Opens the breaker, e.g. to take a host out of service during an incident. Like any open breaker, it lets
+         * trial attempts through once its delay passed.
+         */
+        public void forceOpen() {
+            open.run();
+        }
+
+        /**
+         * Closes the breaker with an empty window, e.g. once a host is known to be healthy again.
+         */
+        public void forceClose() {
+            close.run();
+        }
+
+        /**
+         * Closes the breaker with an empty window and clears the transitions and times in state recorded so far.
+         */
+        public void reset() {
+            close.run();
+            synchronized (this) {
+                Arrays.fill(transitions, 0);
+                Arrays.fill(timeInStateNanos, 0);
+                stateSinceNanos = System.nanoTime();
+            }
+        }
+
+        synchronized void transitionTo(final CircuitBreaker.State next) {
+            if (next == state) {
+                return;
+            }
+            final long now = System.nanoTime();
+            timeInStateNanos[state.ordinal()] += now - stateSinceNanos;
+            transitions[next.ordinal()]++;
+            state = next;
+            stateSinceNanos = now;
+        }
+
+        /**
+         * @return current state
+         */
+        public synchronized CircuitBreaker.State getState() {
+            return state;
+        }
+
+        /**
+         * @param target
+         *          state transitioned to
+         * @return number of transitions into the given state
+         */
+        public synchronized long getTransitionCount(final CircuitBreaker.State target) {
+            return transitions[target.ordinal()];
+        }
+
+        /**
+         * @param target
+         *          state to look at
+         * @return total time spent in the given state, the current period included
+         */
+        public synchronized Duration getTimeInState(final CircuitBreaker.State target) {
+            final long current = target == state ? System.nanoTime() - stateSinceNanos : 0;
+            return Duration.ofNanos(timeInStateNanos[target.ordinal()] + current);
+        }
+
+        /**
+         * @return time since the last transition, or since the breaker was instrumented
+         */
+        public synchronized Duration getTimeInCurrentState() {
+            return Duration.ofNanos(System.nanoTime() - stateSinceNanos);
+        }
+    }
+}
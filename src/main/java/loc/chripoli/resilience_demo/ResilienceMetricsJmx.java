@@ -0,0 +1,145 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports a {@link ResilienceMetrics} registry as an MXBean, so operators can inspect the hosts and circuit breakers
+ * of a running client with any JMX console and open, close or reset a breaker without a restart.
+ * <p>
+ * Reading an attribute takes a snapshot of the registry; the recording threads are never blocked by it.
+ *
+ * @author chripoli
+ */
+public class ResilienceMetricsJmx implements ResilienceMetricsMXBean {
+
+    /**
+     * Domain of the object names.
+     */
+    public static final String DOMAIN = "loc.chripoli.resilience_demo";
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ResilienceMetrics metrics;
+
+    /**
+     * @param metrics
+     *          registry to export
+     */
+    public ResilienceMetricsJmx(final ResilienceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Registers the registry with the platform MBean server as {@code loc.chripoli.resilience_demo:type=ResilienceMetrics,name=<name>}.
+     *
+     * @param metrics
+     *          registry to export
+     * @param name
+     *          name of the registry, e.g. of the client using it
+     * @return name of the registered MBean, to {@link #unregister(ObjectName)} it
+     * @throws IllegalStateException
+     *          if the MBean could not be registered, e.g. because the name is taken
+     */
+    public static ObjectName register(final ResilienceMetrics metrics, final String name) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=ResilienceMetrics,name=" + ObjectName.quote(name));
+            return server.registerMBean(new ResilienceMetricsJmx(metrics), objectName).getObjectName();
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register resilience metrics " + name, e);
+        }
+    }
+
+    /**
+     * Removes a registry from the platform MBean server, if still registered.
+     *
+     * @param objectName
+     *          name returned by {@link #register(ResilienceMetrics, String)}
+     */
+    public static void unregister(final ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (InstanceNotFoundException e) {
+            // already gone
+        } catch (MBeanRegistrationException e) {
+            throw new IllegalStateException("Could not unregister " + objectName, e);
+        }
+    }
+
+    @Override
+    public Map<String, HostStatistics> getHosts() {
+        final Map<String, HostStatistics> hosts = new HashMap<>();
+        metrics.getHostMetrics().forEach((host, hostMetrics) -> {
+            final LatencyHistogram.Snapshot latencies = hostMetrics.getLatencies().snapshot();
+            hosts.put(host, new HostStatistics(hostMetrics.getAttemptCount(), hostMetrics.getRetryCount(), hostMetrics.getSuccessCount(),
+                    hostMetrics.getFailureCount(), hostMetrics.getRejectedCount(), millis(latencies.getValueAtPercentile(0.5)),
+                    millis(latencies.getValueAtPercentile(0.95)), millis(latencies.getValueAtPercentile(0.99))));
+        });
+        return hosts;
+    }
+
+    @Override
+    public Map<String, BreakerStatistics> getCircuitBreakers() {
+        final Map<String, BreakerStatistics> breakers = new HashMap<>();
+        metrics.getBreakerMetrics().forEach((name, breaker) -> {
+            // one consistent view of a breaker, its transitions only wait for the few reads below
+            synchronized (breaker) {
+                breakers.put(name, new BreakerStatistics(breaker.getState().name(),
+                        breaker.getTransitionCount(CircuitBreaker.State.OPEN),
+                        breaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN),
+                        breaker.getTransitionCount(CircuitBreaker.State.CLOSED),
+                        breaker.getTimeInState(CircuitBreaker.State.OPEN).toMillis(),
+                        breaker.getTimeInState(CircuitBreaker.State.HALF_OPEN).toMillis(),
+                        breaker.getTimeInState(CircuitBreaker.State.CLOSED).toMillis(),
+                        breaker.getTimeInCurrentState().toMillis()));
+            }
+        });
+        return breakers;
+    }
+
+    @Override
+    public double latencyPercentileMillis(final String host, final double percentile) {
+        final ResilienceMetrics.HostMetrics hostMetrics = metrics.getHostMetrics().get(host);
+        if (hostMetrics == null) {
+            throw new IllegalArgumentException("Unknown host " + host);
+        }
+        return millis(hostMetrics.getLatencies().getValueAtPercentile(percentile));
+    }
+
+    @Override
+    public void forceOpen(final String name) {
+        breaker(name).forceOpen();
+    }
+
+    @Override
+    public void forceClose(final String name) {
+        breaker(name).forceClose();
+    }
+
+    @Override
+    public void reset(final String name) {
+        breaker(name).reset();
+    }
+
+    private ResilienceMetrics.BreakerMetrics breaker(final String name) {
+        final ResilienceMetrics.BreakerMetrics breaker = metrics.getBreakerMetrics().get(name);
+        if (breaker == null) {
+            throw new IllegalArgumentException("Unknown circuit breaker " + name);
+        }
+        return breaker;
+    }
+
+    private static double millis(final long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
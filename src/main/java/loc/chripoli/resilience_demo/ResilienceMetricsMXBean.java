@@ -0,0 +1,176 @@
+package loc.chripoli.resilience_demo;
+
+import java.beans.ConstructorProperties;
+import java.util.Map;
+
+/**
+ * Management interface of a {@link ResilienceMetrics} registry, see {@link ResilienceMetricsJmx}.
+ * <p>
+ * Attributes are snapshots taken when read; hosts and circuit breakers show up as rows of a table keyed by their name.
+ *
+ * @author chripoli
+ */
+public interface ResilienceMetricsMXBean {
+
+    /**
+     * @return counters and latency percentiles by host ({@code host:port})
+     */
+    Map<String, HostStatistics> getHosts();
+
+    /**
+     * @return state and transitions by circuit breaker name
+     */
+    Map<String, BreakerStatistics> getCircuitBreakers();
+
+    /**
+     * @param host
+     *          target as {@code host:port}
+     * @param percentile
+     *          percentile between 0 and 1, e.g. {@code 0.999}
+     * @return latency of the attempts to the host at the percentile in milliseconds
+     */
+    double latencyPercentileMillis(String host, double percentile);
+
+    /**
+     * @param name
+     *          name of the circuit breaker
+     * @see ResilienceMetrics.BreakerMetrics#forceOpen()
+     */
+    void forceOpen(String name);
+
+    /**
+     * @param name
+     *          name of the circuit breaker
+     * @see ResilienceMetrics.BreakerMetrics#forceClose()
+     */
+    void forceClose(String name);
+
+    /**
+     * @param name
+     *          name of the circuit breaker
+     * @see ResilienceMetrics.BreakerMetrics#reset()
+     */
+    void reset(String name);
+
+    /**
+     * Counters and latency percentiles of the attempts to a single host.
+     */
+    class HostStatistics {
+
+        private final long attempts;
+        private final long retries;
+        private final long successes;
+        private final long failures;
+        private final long rejections;
+        private final double latencyP50Millis;
+        private final double latencyP95Millis;
+        private final double latencyP99Millis;
+
+        @ConstructorProperties({"attempts", "retries", "successes", "failures", "rejections", "latencyP50Millis",
+                "latencyP95Millis", "latencyP99Millis"})
+        public HostStatistics(final long attempts, final long retries, final long successes, final long failures, final long rejections,
+                              final double latencyP50Millis, final double latencyP95Millis, final double latencyP99Millis) {
+            this.attempts = attempts;
+            this.retries = retries;
+            this.successes = successes;
+            this.failures = failures;
+            this.rejections = rejections;
+            this.latencyP50Millis = latencyP50Millis;
+            this.latencyP95Millis = latencyP95Millis;
+            this.latencyP99Millis = latencyP99Millis;
+        }
+
+        public long getAttempts() {
+            return attempts;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getSuccesses() {
+            return successes;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getRejections() {
+            return rejections;
+        }
+
+        public double getLatencyP50Millis() {
+            return latencyP50Millis;
+        }
+
+        public double getLatencyP95Millis() {
+            return latencyP95Millis;
+        }
+
+        public double getLatencyP99Millis() {
+            return latencyP99Millis;
+        }
+    }
+
+    /**
+     * State, transitions and time in state of a single circuit breaker.
+     */
+    class BreakerStatistics {
+
+        private final String state;
+        private final long timesOpened;
+        private final long timesHalfOpened;
+        private final long timesClosed;
+        private final long millisOpen;
+        private final long millisHalfOpen;
+        private final long millisClosed;
+        private final long millisInCurrentState;
+
+        @ConstructorProperties({"state", "timesOpened", "timesHalfOpened", "timesClosed", "millisOpen", "millisHalfOpen",
+                "millisClosed", "millisInCurrentState"})
+        public BreakerStatistics(final String state, final long timesOpened, final long timesHalfOpened, final long timesClosed,
+                                 final long millisOpen, final long millisHalfOpen, final long millisClosed, final long millisInCurrentState) {
+            this.state = state;
+            this.timesOpened = timesOpened;
+            this.timesHalfOpened = timesHalfOpened;
+            this.timesClosed = timesClosed;
+            this.millisOpen = millisOpen;
+            this.millisHalfOpen = millisHalfOpen;
+            this.millisClosed = millisClosed;
+            this.millisInCurrentState = millisInCurrentState;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public long getTimesOpened() {
+            return timesOpened;
+        }
+
+        public long getTimesHalfOpened() {
+            return timesHalfOpened;
+        }
+
+        public long getTimesClosed() {
+            return timesClosed;
+        }
+
+        public long getMillisOpen() {
+            return millisOpen;
+        }
+
+        public long getMillisHalfOpen() {
+            return millisHalfOpen;
+        }
+
+        public long getMillisClosed() {
+            return millisClosed;
+        }
+
+        public long getMillisInCurrentState() {
+            return millisInCurrentState;
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package loc.chripoli.resilience_demo;
+
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded in-memory cache of GET responses by URL.
+ * <p>
+ * How long a response stays fresh follows its headers: {@code Cache-Control: max-age} takes precedence over
+ * {@code Expires}, the {@code Age} header is subtracted, {@code no-store} and {@code no-cache} responses are not
+ * served from the cache. Responses without any of these headers are fresh for the default TTL, which is zero, i.e.
+ * they are not cached, unless configured otherwise. Only statuses which are cacheable by default (200, 203, 204, 300,
+ * 301, 404, 405, 410, 414, 501) are stored. Responses with a {@code Vary} header are never stored, as the cache is
+ * keyed by URL only and could not tell the variants apart.
+ * <p>
+ * The number of entries and their total weight (entity and header bytes) are capped; beyond either cap expired
+ * entries, then the least recently used ones are evicted, down to 10% below the cap so the sort is amortized over many
+ * insertions. Fresh hits are served without touching the network, the retry policy, the circuit breaker or any guard.
+ * <p>
+ * With {@link #withStaleIfError(Duration)}, responses are kept beyond their freshness as last known good responses:
+ * while the circuit breaker of a call is open or its retries are exhausted, the client serves them marked as stale
+ * instead of failing. Responses which are never fresh, e.g. {@code no-cache} or without caching headers, are kept as
+ * well then; only {@code no-store} responses are never stored. Only successful and redirect responses (2xx and 3xx)
+ * are served as stale fallback; a cached error status like 404 is served while fresh, but never in place of a failure.
+ *
+ * @author chripoli
+ * @see JerseyTestClient#withResponseCache(ResponseCache)
+ */
+public class ResponseCache {
+
+    /**
+     * Access times are only updated if they changed by more than this, so hits on a hot entry do not keep writing the
+     * same cache line.
+     */
+    private static final long ACCESS_RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Freshness of responses which must not be stored at all.
+     */
+    static final long NOT_STORABLE = Long.MIN_VALUE;
+
+    private static final Set<Integer> CACHEABLE_STATUSES = new HashSet<>(Arrays.asList(200, 203, 204, 300, 301, 404, 405, 410, 414, 501));
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicBoolean evictionRunning = new AtomicBoolean();
+
+    private int maximumSize = 10_000;
+    private long maximumWeight = 64L * 1024 * 1024;
+    private long defaultTtlNanos;
+    private long staleIfErrorNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize
+     *          maximum number of cached responses, 10,000 by default
+     * @return this cache
+     */
+    public ResponseCache withMaximumSize(final int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be >= 1");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * @param maximumWeight
+     *          maximum total size of the cached responses in bytes, 64 MiB by default
+     * @return this cache
+     */
+    public ResponseCache withMaximumWeight(final long maximumWeight) {
+        if (maximumWeight < 1) {
+            throw new IllegalArgumentException("maximumWeight must be >= 1");
+        }
+        this.maximumWeight = maximumWeight;
+        return this;
+    }
+
+    /**
+     * @param defaultTtl
+     *          time responses without {@code Cache-Control} or {@code Expires} header stay fresh
+     * @return this cache
+     */
+    public ResponseCache withDefaultTtl(final Duration defaultTtl) {
+        if (defaultTtl == null || defaultTtl.isNegative()) {
+            throw new IllegalArgumentException("defaultTtl must be >= 0");
+        }
+        this.defaultTtlNanos = defaultTtl.toNanos();
+        return this;
+    }
+
+    /**
+     * Keeps responses after they went stale, to be served if the upstream fails.
+     *
+     * @param maxStale
+     *          time a response is kept after it went stale
+     * @return this cache
+     */
+    public ResponseCache withStaleIfError(final Duration maxStale) {
+        if (maxStale == null || maxStale.isNegative()) {
+            throw new IllegalArgumentException("maxStale must be >= 0");
+        }
+        this.staleIfErrorNanos = maxStale.toNanos();
+        return this;
+    }
+
+    /**
+     * @return {@code true} if stale responses are kept to be served on errors
+     */
+    public boolean isStaleIfErrorEnabled() {
+        return staleIfErrorNanos > 0;
+    }
+
+    /**
+     * Returns a fresh cached response of the URL.
+     *
+     * @param url
+     *          requested URL
+     * @return own copy of the cached response, {@code null} on a miss
+     */
+    public Response get(final String url) {
+        final Entry entry = entries.get(url);
+        final long now = System.nanoTime();
+        if (entry == null || now - entry.expiresAtNanos >= 0) {
+            if (entry != null && now - entry.discardAtNanos >= 0) {
+                remove(url, entry);
+            }
+            misses.increment();
+            return null;
+        }
+        if (now - entry.lastAccessNanos > ACCESS_RESOLUTION_NANOS) {
+            entry.lastAccessNanos = now;
+        }
+        hits.increment();
+        return entry.response.copy();
+    }
+
+    /**
+     * Returns the last known good response of the URL, to be served if the upstream fails.
+     *
+     * @param url
+     *          requested URL
+     * @return own copy of the cached response, marked as stale unless it is still fresh; {@code null} if there is none
+     *          or it has an error status
+     */
+    public Response getStale(final String url) {
+        final Entry entry = entries.get(url);
+        final long now = System.nanoTime();
+        if (entry == null || now - entry.discardAtNanos >= 0 || entry.response.getStatus() >= 400) {
+            return null;
+        }
+        staleHits.increment();
+        return now - entry.expiresAtNanos >= 0 ? entry.response.asStale() : entry.response.copy();
+    }
+
+    /**
+     * Buffers the response and stores it if it is cacheable.
+     *
+     * @param url
+     *          requested URL
+     * @param response
+     *          response of the URL, consumed by this method; stale responses served by the cache are not stored again
+     * @return own copy of the response for the caller
+     */
+    public Response put(final String url, final Response response) {
+        final BufferedResponse buffered = BufferedResponse.of(response);
+        if (buffered.isStale() || !CACHEABLE_STATUSES.contains(buffered.getStatus()) || buffered.getHeaderString(HttpHeaders.VARY) != null) {
+            return buffered;
+        }
+        final long ttlNanos = freshnessNanos(buffered);
+        if (ttlNanos == NOT_STORABLE || (ttlNanos <= 0 && staleIfErrorNanos == 0)) {
+            return buffered;
+        }
+        final long now = System.nanoTime();
+        final Entry entry = new Entry(buffered.copy(), now + Math.max(0, ttlNanos), staleIfErrorNanos, now);
+        if (entry.weight > maximumWeight) {
+            return buffered;
+        }
+        final Entry replaced = entries.put(url, entry);
+        weight.addAndGet(entry.weight - (replaced == null ? 0 : replaced.weight));
+        if (entries.size() > maximumSize || weight.get() > maximumWeight) {
+            evict();
+        }
+        return buffered;
+    }
+
+    /**
+     * @param url
+     *          URL whose response is removed
+     */
+    public void invalidate(final String url) {
+        final Entry entry = entries.get(url);
+        if (entry != null) {
+            remove(url, entry);
+        }
+    }
+
+    /**
+     * Removes all responses.
+     */
+    public void invalidateAll() {
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            remove(mapEntry.getKey(), mapEntry.getValue());
+        }
+    }
+
+    /**
+     * @return number of cached responses
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return total weight of the cached responses in bytes
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * @return number of requests served from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of requests not found fresh in the cache
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of last known good responses served because the upstream failed
+     */
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    /**
+     * @return number of responses evicted because of the size or weight cap
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Computes how long a response stays fresh from its caching headers.
+     *
+     * @param response
+     *          response to store
+     * @return freshness lifetime in nanoseconds, 0 or less if it must not be served from the cache as fresh,
+     *          {@link #NOT_STORABLE} if it must not be stored at all
+     */
+    long freshnessNanos(final Response response) {
+        final String cacheControlHeader = response.getHeaderString(HttpHeaders.CACHE_CONTROL);
+        final String expires = response.getHeaderString(HttpHeaders.EXPIRES);
+        long lifetimeNanos;
+        if (cacheControlHeader != null) {
+            final CacheControl cacheControl;
+            try {
+                cacheControl = CacheControl.valueOf(cacheControlHeader);
+            } catch (IllegalArgumentException e) {
+                return NOT_STORABLE;
+            }
+            if (cacheControl.isNoStore()) {
+                return NOT_STORABLE;
+            }
+            if (cacheControl.isNoCache()) {
+                return 0;
+            }
+            lifetimeNanos = cacheControl.getMaxAge() >= 0 ? TimeUnit.SECONDS.toNanos(cacheControl.getMaxAge()) : -1;
+        } else {
+            lifetimeNanos = -1;
+        }
+        if (lifetimeNanos < 0 && expires != null) {
+            final Date expiresAt = BufferedResponse.parseHttpDate(expires);
+            final Date date = response.getDate();
+            // a malformed Expires means already expired
+            lifetimeNanos = expiresAt == null ? 0
+                    : TimeUnit.MILLISECONDS.toNanos(expiresAt.getTime() - (date == null ? System.currentTimeMillis() : date.getTime()));
+        }
+        if (lifetimeNanos < 0) {
+            lifetimeNanos = defaultTtlNanos;
+        }
+        final String age = response.getHeaderString("Age");
+        if (age != null) {
+            try {
+                lifetimeNanos -= TimeUnit.SECONDS.toNanos(Long.parseLong(age.trim()));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return lifetimeNanos;
+    }
+
+    private void remove(final String url, final Entry entry) {
+        if (entries.remove(url, entry)) {
+            weight.addAndGet(-entry.weight);
+        }
+    }
+
+    /**
+     * Evicts discarded, then least recently used entries until size and weight are 10% below their caps.
+     * Only one thread evicts at a time.
+     */
+    private void evict() {
+        if (!evictionRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            final long now = System.nanoTime();
+            final List<Candidate> candidates = new ArrayList<>();
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                candidates.add(new Candidate(mapEntry.getKey(), mapEntry.getValue(), now));
+            }
+            candidates.sort(Comparator.comparing((Candidate candidate) -> !candidate.expired)
+                    .thenComparingLong(candidate -> candidate.lastAccessNanos));
+            final int targetSize = maximumSize - maximumSize / 10;
+            final long targetWeight = maximumWeight - maximumWeight / 10;
+            for (Candidate candidate : candidates) {
+                if (entries.size() <= targetSize && weight.get() <= targetWeight) {
+                    break;
+                }
+                if (entries.remove(candidate.url, candidate.entry)) {
+                    weight.addAndGet(-candidate.entry.weight);
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionRunning.set(false);
+        }
+    }
+
+    private static final class Entry {
+
+        private final BufferedResponse response;
+        private final long expiresAtNanos;
+        private final long discardAtNanos;
+        private final long weight;
+        private volatile long lastAccessNanos;
+
+        private Entry(final BufferedResponse response, final long expiresAtNanos, final long staleNanos, final long lastAccessNanos) {
+            this.response = response;
+            this.expiresAtNanos = expiresAtNanos;
+            this.discardAtNanos = expiresAtNanos + staleNanos;
+            this.weight = response.weight();
+            this.lastAccessNanos = lastAccessNanos;
+        }
+    }
+
+    /**
+     * Entry considered for eviction, with its access time fixed for sorting.
+     */
+    private static final class Candidate {
+
+        private final String url;
+        private final Entry entry;
+        private final boolean expired;
+        private final long lastAccessNanos;
+
+        private Candidate(final String url, final Entry entry, final long now) {
+            this.url = url;
+            this.entry = entry;
+            this.expired = now - entry.discardAtNanos >= 0;
+            this.lastAccessNanos = entry.lastAccessNanos;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.RetryPolicy;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Budget capping retries to a share of the recent successful attempts, so retries cannot multiply the load on an
+ * upstream which is failing anyway.
+ * <p>
+ * Within a sliding window (10 seconds by default), retries are admitted as long as they stay below
+ * {@code retryRatio} times the successful attempts plus a reserve of {@code minRetriesPerSecond} for low traffic. First
+ * attempts are never rejected. Like {@link SlidingWindowCircuitBreaker}, the window consists of buckets counting in
+ * {@link LongAdder}s, so accounting never takes a lock; concurrent retries checking the budget at the same moment may
+ * overshoot it by their number.
+ * <p>
+ * The budget is an {@link AttemptGuard} which needs to see all callers of a host: use a {@link PerHostGuard} and
+ * register it with the shared client. Retries beyond the budget are rejected with a
+ * {@link RetryBudgetExhaustedException}; {@link #abortOnExhaustion(RetryPolicy)} makes a retry policy give up on it
+ * instead of retrying again.
+ *
+ * @author chripoli
+ */
+public class RetryBudget implements AttemptGuard {
+
+    private final double retryRatio;
+    private final long reserveRetries;
+    private final long bucketNanos;
+    private final Bucket[] buckets;
+    private final long originNanos = System.nanoTime();
+
+    private final LongAdder permittedRetries = new LongAdder();
+    private final LongAdder deniedRetries = new LongAdder();
+
+    private final Permit firstAttemptPermit = (response, failure, latencyNanos) -> recordOutcome(response, failure);
+
+    /**
+     * Creates a budget with a window of 10 seconds in 10 buckets.
+     *
+     * @param retryRatio
+     *          retries allowed per successful attempt, e.g. 0.2 for at most 20% extra load
+     * @param minRetriesPerSecond
+     *          retries allowed per second regardless of the successes
+     */
+    public RetryBudget(final double retryRatio, final int minRetriesPerSecond) {
+        this(retryRatio, minRetriesPerSecond, Duration.ofSeconds(10), 10);
+    }
+
+    /**
+     * @param retryRatio
+     *          retries allowed per successful attempt, e.g. 0.2 for at most 20% extra load
+     * @param minRetriesPerSecond
+     *          retries allowed per second regardless of the successes
+     * @param window
+     *          duration of the sliding window
+     * @param bucketCount
+     *          number of buckets the window is split into
+     */
+    public RetryBudget(final double retryRatio, final int minRetriesPerSecond, final Duration window, final int bucketCount) {
+        if (retryRatio < 0) {
+            throw new IllegalArgumentException("retryRatio must be >= 0");
+        }
+        if (minRetriesPerSecond < 0) {
+            throw new IllegalArgumentException("minRetriesPerSecond must be >= 0");
+        }
+        if (window == null || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("window must be > 0");
+        }
+        if (bucketCount < 1 || window.toNanos() / bucketCount < 1) {
+            throw new IllegalArgumentException("bucketCount must be >= 1 and buckets must not be shorter than 1 ns");
+        }
+        this.retryRatio = retryRatio;
+        this.reserveRetries = minRetriesPerSecond * window.toNanos() / TimeUnit.SECONDS.toNanos(1);
+        this.bucketNanos = window.toNanos() / bucketCount;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Makes the retry policy stop retrying once the budget is exhausted, instead of retrying again after its delay.
+     *
+     * @param retryPolicy
+     *          retry policy to configure
+     * @return the same retry policy
+     */
+    public static RetryPolicy<Response> abortOnExhaustion(final RetryPolicy<Response> retryPolicy) {
+        return retryPolicy.abortOn(RetryBudgetExhaustedException.class);
+    }
+
+    @Override
+    public Permit acquire(final String host, final int attempt) {
+        if (attempt <= 1) {
+            return firstAttemptPermit;
+        }
+        final long slot = currentSlot();
+        final long[] counts = windowCounts(slot);
+        if (counts[1] >= retryRatio * counts[0] + reserveRetries) {
+            deniedRetries.increment();
+            throw new RetryBudgetExhaustedException(host, "Retry budget exhausted");
+        }
+        bucketFor(slot).retries.increment();
+        permittedRetries.increment();
+        return (response, failure, latencyNanos) -> releaseRetry(slot, response, failure);
+    }
+
+    /**
+     * @return number of retries currently left in the budget, may be negative after an overshoot
+     */
+    public long getAvailableRetries() {
+        final long[] counts = windowCounts(currentSlot());
+        return (long) (retryRatio * counts[0]) + reserveRetries - counts[1];
+    }
+
+    /**
+     * @return number of admitted retries, without those handed back because another guard rejected them
+     */
+    public long getPermittedRetryCount() {
+        return permittedRetries.sum();
+    }
+
+    /**
+     * @return number of retries rejected because the budget was exhausted
+     */
+    public long getDeniedRetryCount() {
+        return deniedRetries.sum();
+    }
+
+    private void releaseRetry(final long slot, final Response response, final Throwable failure) {
+        if (failure instanceof AttemptRejectedException) {
+            // rejected by another guard, the retry has not been sent: hand it back to the bucket which counted it,
+            // unless that bucket has been recycled for a later slot meanwhile
+            final Bucket bucket = buckets[(int) (slot % buckets.length)];
+            if (bucket.slot.get() == slot) {
+                bucket.retries.decrement();
+            }
+            permittedRetries.decrement();
+            return;
+        }
+        recordOutcome(response, failure);
+    }
+
+    private void recordOutcome(final Response response, final Throwable failure) {
+        if (failure == null && response.getStatus() < 500) {
+            bucketFor(currentSlot()).successes.increment();
+        }
+    }
+
+    private long currentSlot() {
+        return (System.nanoTime() - originNanos) / bucketNanos;
+    }
+
+    /**
+     * @return successes and retries of all buckets within the window
+     */
+    private long[] windowCounts(final long slot) {
+        final long[] counts = new long[2];
+        for (Bucket bucket : buckets) {
+            if (slot - bucket.slot.get() < buckets.length) {
+                counts[0] += bucket.successes.sum();
+                counts[1] += bucket.retries.sum();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the bucket of the given time slot, recycling it if it still holds an older slot.
+     */
+    private Bucket bucketFor(final long slot) {
+        final Bucket bucket = buckets[(int) (slot % buckets.length)];
+        final long bucketSlot = bucket.slot.get();
+        if (bucketSlot < slot && bucket.slot.compareAndSet(bucketSlot, slot)) {
+            bucket.successes.reset();
+            bucket.retries.reset();
+        }
+        return bucket;
+    }
+
+    private static final class Bucket {
+
+        private final AtomicLong slot = new AtomicLong(Long.MIN_VALUE / 2);
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+    }
+}
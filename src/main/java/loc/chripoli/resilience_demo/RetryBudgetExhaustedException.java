@@ -0,0 +1,21 @@
+package loc.chripoli.resilience_demo;
+
+/**
+ * Thrown if a {@link RetryBudget} does not allow another retry.
+ *
+ * @author chripoli
+ */
+public class RetryBudgetExhaustedException extends AttemptRejectedException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param host
+     *          target of the rejected attempt
+     * @param message
+     *          reason of the rejection
+     */
+    public RetryBudgetExhaustedException(final String host, final String message) {
+        super(host, message);
+    }
+}
@@ -0,0 +1,489 @@
+package loc.chripoli.resilience_demo;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Circuit breaker evaluating the failure rate over a sliding time window.
+ * <p>
+ * Unlike a count based window of a few executions, the window covers e.g. the last 10 seconds in buckets of 1 second,
+ * so the breaker neither flaps at high request rates nor trips on a handful of failures: it opens once the window
+ * holds at least the minimum throughput and the failure rate reaches the threshold. Each bucket counts successes,
+ * failures and slow calls in {@link LongAdder}s, so recording an outcome never takes a lock; a bucket is recycled by
+ * the first thread entering its next time slot.
+ * <p>
+ * With {@link #withSlowCallRateThreshold(Duration, double)}, attempts taking at least the given duration count as slow
+ * calls, whether they succeeded or not, and the breaker also opens once the rate of slow calls reaches its own
+ * threshold. This sheds load from an upstream which still answers, but too slowly.
+ * <p>
+ * After the open delay, a limited number of trial attempts is let through (half-open). If all of them succeed, the
+ * breaker closes with an empty window, any failure or slow call opens it again.
+ * <p>
+ * State, open timestamp, remaining trial permits and successful trials are packed into a single {@code long} and
+ * transitioned by CAS, so neither admitting an attempt nor changing the state takes a lock. Listeners run on the thread
+ * whose CAS performed the transition.
+ * <p>
+ * The breaker is an {@link AttemptGuard}, rejecting attempts with a {@link CallNotPermittedException}; use a
+ * {@link PerHostGuard} for one breaker per host. An attempt counts as failed if it throws or its response matches the
+ * failure predicate (status 500 and above by default). Rejections by other guards are not counted.
+ *
+ * @author chripoli
+ */
+public class SlidingWindowCircuitBreaker implements AttemptGuard {
+
+    /**
+     * State of the circuit breaker.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Highest number of trial permits that fits into the state word.
+     */
+    public static final int MAX_TRIAL_PERMITS = 1023;
+
+    // layout of the state word from the lowest bit: state (2 bits) | remaining trial permits (10) | successful trials (10) | opened at (42)
+    private static final int REMAINING_SHIFT = 2;
+    private static final int SUCCESSES_SHIFT = 12;
+    private static final int OPENED_AT_SHIFT = 22;
+    private static final long STATE_MASK = 0x3;
+    private static final long PERMITS_MASK = MAX_TRIAL_PERMITS;
+    private static final long CLOSED_WORD = 0;
+    private static final State[] STATES = State.values();
+
+    private double failureRateThreshold = 0.5;
+    private long minimumThroughput = 20;
+    private long slowCallNanos = Long.MAX_VALUE;
+    private double slowCallRateThreshold = 1;
+    private long openDelayNanos = TimeUnit.SECONDS.toNanos(10);
+    private int trialPermits = 3;
+    private Predicate<Response> failurePredicate = response -> response.getStatus() >= 500;
+
+    private final long bucketNanos;
+    private final Bucket[] buckets;
+    private final long originNanos = System.nanoTime();
+
+    private final AtomicLong stateWord = new AtomicLong(CLOSED_WORD);
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    private final List<Runnable> openListeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> halfOpenListeners = new CopyOnWriteArrayList<>();
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+
+    private final Permit closedPermit = this::releaseClosed;
+    private final Permit trialPermit = this::releaseTrial;
+
+    /**
+     * Creates a breaker with a window of 10 seconds in 10 buckets.
+     */
+    public SlidingWindowCircuitBreaker() {
+        this(Duration.ofSeconds(10), 10);
+    }
+
+    /**
+     * @param window
+     *          duration of the sliding window
+     * @param bucketCount
+     *          number of buckets the window is split into
+     */
+    public SlidingWindowCircuitBreaker(final Duration window, final int bucketCount) {
+        if (window == null || window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("window must be > 0");
+        }
+        if (bucketCount < 1 || window.toNanos() / bucketCount < 1) {
+            throw new IllegalArgumentException("bucketCount must be >= 1 and buckets must not be shorter than 1 ns");
+        }
+        this.bucketNanos = window.toNanos() / bucketCount;
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * @param failureRateThreshold
+     *          failure rate between 0 and 1 at which the breaker opens
+     * @param minimumThroughput
+     *          number of attempts the window must hold before the failure rate is evaluated
+     * @return this breaker
+     */
+    public SlidingWindowCircuitBreaker withFailureRateThreshold(final double failureRateThreshold, final long minimumThroughput) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("failureRateThreshold must be > 0 and <= 1");
+        }
+        if (minimumThroughput < 1) {
+            throw new IllegalArgumentException("minimumThroughput must be >= 1");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumThroughput = minimumThroughput;
+        return this;
+    }
+
+    /**
+     * @param slowCallDuration
+     *          duration at and above which an attempt counts as slow
+     * @param slowCallRateThreshold
+     *          rate of slow calls between 0 and 1 at which the breaker opens, evaluated above the minimum throughput
+     * @return this breaker
+     */
+    public SlidingWindowCircuitBreaker withSlowCallRateThreshold(final Duration slowCallDuration, final double slowCallRateThreshold) {
+        if (slowCallDuration == null || slowCallDuration.isNegative() || slowCallDuration.isZero()) {
+            throw new IllegalArgumentException("slowCallDuration must be > 0");
+        }
+        if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) {
+            throw new IllegalArgumentException("slowCallRateThreshold must be > 0 and <= 1");
+        }
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    /**
+     * @param delay
+     *          time the breaker stays open before letting trial attempts through
+     * @return this breaker
+     */
+    public SlidingWindowCircuitBreaker withDelay(final Duration delay) {
+        if (delay == null || delay.isNegative()) {
+            throw new IllegalArgumentException("delay must be >= 0");
+        }
+        this.openDelayNanos = delay.toNanos();
+        return this;
+    }
+
+    /**
+     * @param trialPermits
+     *          number of trial attempts in half-open state, all of which have to succeed to close the breaker
+     * @return this breaker
+     */
+    public SlidingWindowCircuitBreaker withTrialPermits(final int trialPermits) {
+        if (trialPermits < 1 || trialPermits > MAX_TRIAL_PERMITS) {
+            throw new IllegalArgumentException("trialPermits must be >= 1 and <= " + MAX_TRIAL_PERMITS);
+        }
+        this.trialPermits = trialPermits;
+        return this;
+    }
+
+    /**
+     * @param failurePredicate
+     *          returns {@code true} for responses counting as failures
+     * @return this breaker
+     */
+    public SlidingWindowCircuitBreaker handleResultIf(final Predicate<Response> failurePredicate) {
+        this.failurePredicate = failurePredicate;
+        return this;
+    }
+
+    /**
+     * @param listener
+     *          called whenever the breaker opens
+     * @return this breaker
+     */
+    public SlidingWindowCircuitBreaker onOpen(final Runnable listener) {
+        openListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * @param listener
+     *          called whenever the breaker becomes half-open
+     * @return this breaker
+     */
+    public SlidingWindowCircuitBreaker onHalfOpen(final Runnable listener) {
+        halfOpenListeners.add(listener);
+        return this;
+    }
+
+    /**
+     * @param listener
+     *          called whenever the breaker closes
+     * @return this breaker
+     */
+    public SlidingWindowCircuitBreaker onClose(final Runnable listener) {
+        closeListeners.add(listener);
+        return this;
+    }
+
+    @Override
+    public Permit acquire(final String host, final int attempt) {
+        while (true) {
+            final long word = stateWord.get();
+            final State current = stateOf(word);
+            if (current == State.CLOSED) {
+                return closedPermit;
+            }
+            if (current == State.OPEN) {
+                final long openedAt = word >>> OPENED_AT_SHIFT;
+                if ((nowMillis() - openedAt) * 1_000_000 < openDelayNanos) {
+                    rejectedCalls.increment();
+                    throw new CallNotPermittedException(host, "Circuit breaker is open");
+                }
+                // the winner of the transition takes the first trial permit
+                if (stateWord.compareAndSet(word, halfOpenWord(trialPermits - 1, openedAt))) {
+                    notifyListeners(halfOpenListeners);
+                    return trialPermit;
+                }
+            } else if (remainingOf(word) == 0) {
+                rejectedCalls.increment();
+                throw new CallNotPermittedException(host, "Circuit breaker is half-open");
+            } else if (stateWord.compareAndSet(word, word - (1L << REMAINING_SHIFT))) {
+                return trialPermit;
+            }
+        }
+    }
+
+    /**
+     * @return current state
+     */
+    public State getState() {
+        return stateOf(stateWord.get());
+    }
+
+    public boolean isClosed() {
+        return getState() == State.CLOSED;
+    }
+
+    public boolean isOpen() {
+        return getState() == State.OPEN;
+    }
+
+    /**
+     * Opens the breaker, e.g. to take a host out of service manually.
+     */
+    public void open() {
+        forceState(State.OPEN);
+    }
+
+    /**
+     * Closes the breaker with an empty window.
+     */
+    public void close() {
+        forceState(State.CLOSED);
+    }
+
+    /**
+     * Lets trial attempts through right away.
+     */
+    public void halfOpen() {
+        forceState(State.HALF_OPEN);
+    }
+
+    /**
+     * @return failure rate within the window between 0 and 1, 0 if the window is empty
+     */
+    public double getFailureRate() {
+        final long[] counts = windowCounts();
+        final long calls = counts[0] + counts[1];
+        return calls == 0 ? 0 : (double) counts[1] / calls;
+    }
+
+    /**
+     * @return rate of slow calls within the window between 0 and 1, 0 if the window is empty
+     */
+    public double getSlowCallRate() {
+        final long[] counts = windowCounts();
+        final long calls = counts[0] + counts[1];
+        return calls == 0 ? 0 : (double) counts[2] / calls;
+    }
+
+    /**
+     * @return number of attempts recorded within the window
+     */
+    public long getWindowCallCount() {
+        final long[] counts = windowCounts();
+        return counts[0] + counts[1];
+    }
+
+    /**
+     * @return number of rejected attempts
+     */
+    public long getRejectedCount() {
+        return rejectedCalls.sum();
+    }
+
+    private void releaseClosed(final Response response, final Throwable failure, final long latencyNanos) {
+        if (failure instanceof AttemptRejectedException) {
+            return;
+        }
+        final long slot = (System.nanoTime() - originNanos) / bucketNanos;
+        final Bucket bucket = bucketFor(slot);
+        final boolean slow = latencyNanos >= slowCallNanos;
+        if (slow) {
+            bucket.slowCalls.increment();
+        }
+        final boolean failed = isFailure(response, failure);
+        if (failed) {
+            bucket.failures.increment();
+        } else {
+            bucket.successes.increment();
+        }
+        if ((failed || slow) && stateWord.get() == CLOSED_WORD && isThresholdExceeded()
+                && stateWord.compareAndSet(CLOSED_WORD, openWord())) {
+            notifyListeners(openListeners);
+        }
+    }
+
+    private void releaseTrial(final Response response, final Throwable failure, final long latencyNanos) {
+        final boolean rejected = failure instanceof AttemptRejectedException;
+        final boolean failed = !rejected && (isFailure(response, failure) || latencyNanos >= slowCallNanos);
+        while (true) {
+            final long word = stateWord.get();
+            if (stateOf(word) != State.HALF_OPEN) {
+                // the half-open period of this trial is already over
+                return;
+            }
+            if (rejected) {
+                // the trial did not reach the upstream, hand the permit back
+                if (remainingOf(word) >= trialPermits || stateWord.compareAndSet(word, word + (1L << REMAINING_SHIFT))) {
+                    return;
+                }
+            } else if (failed) {
+                if (stateWord.compareAndSet(word, openWord())) {
+                    notifyListeners(openListeners);
+                    return;
+                }
+            } else if (successesOf(word) + 1 >= trialPermits) {
+                // clear the window first, so closed permits never see the failures which opened the breaker
+                resetWindow();
+                if (stateWord.compareAndSet(word, CLOSED_WORD)) {
+                    notifyListeners(closeListeners);
+                    return;
+                }
+            } else if (stateWord.compareAndSet(word, word + (1L << SUCCESSES_SHIFT))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the breaker into the given state unless it is already in it.
+     */
+    private void forceState(final State to) {
+        while (true) {
+            final long word = stateWord.get();
+            if (stateOf(word) == to) {
+                return;
+            }
+            final long next;
+            final List<Runnable> listeners;
+            if (to == State.OPEN) {
+                next = openWord();
+                listeners = openListeners;
+            } else if (to == State.HALF_OPEN) {
+                next = halfOpenWord(trialPermits, word >>> OPENED_AT_SHIFT);
+                listeners = halfOpenListeners;
+            } else {
+                resetWindow();
+                next = CLOSED_WORD;
+                listeners = closeListeners;
+            }
+            if (stateWord.compareAndSet(word, next)) {
+                notifyListeners(listeners);
+                return;
+            }
+        }
+    }
+
+    private static void notifyListeners(final List<Runnable> listeners) {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @return milliseconds since creation of the breaker
+     */
+    private long nowMillis() {
+        return (System.nanoTime() - originNanos) / 1_000_000;
+    }
+
+    /**
+     * Rounds the open timestamp up, so the millisecond resolution never shortens the open delay.
+     */
+    private long openWord() {
+        final long openedAt = (System.nanoTime() - originNanos + 999_999) / 1_000_000;
+        return openedAt << OPENED_AT_SHIFT | State.OPEN.ordinal();
+    }
+
+    private static long halfOpenWord(final long remainingPermits, final long openedAt) {
+        return openedAt << OPENED_AT_SHIFT | remainingPermits << REMAINING_SHIFT | State.HALF_OPEN.ordinal();
+    }
+
+    private static State stateOf(final long word) {
+        return STATES[(int) (word & STATE_MASK)];
+    }
+
+    private static long remainingOf(final long word) {
+        return word >>> REMAINING_SHIFT & PERMITS_MASK;
+    }
+
+    private static long successesOf(final long word) {
+        return word >>> SUCCESSES_SHIFT & PERMITS_MASK;
+    }
+
+    private boolean isFailure(final Response response, final Throwable failure) {
+        return failure != null || failurePredicate.test(response);
+    }
+
+    private boolean isThresholdExceeded() {
+        final long[] counts = windowCounts();
+        final long calls = counts[0] + counts[1];
+        return calls >= minimumThroughput
+                && (counts[1] >= failureRateThreshold * calls || counts[2] >= slowCallRateThreshold * calls);
+    }
+
+    /**
+     * @return successes, failures and slow calls of all buckets within the window
+     */
+    private long[] windowCounts() {
+        final long slot = (System.nanoTime() - originNanos) / bucketNanos;
+        final long[] counts = new long[3];
+        for (Bucket bucket : buckets) {
+            if (slot - bucket.slot.get() < buckets.length) {
+                counts[0] += bucket.successes.sum();
+                counts[1] += bucket.failures.sum();
+                counts[2] += bucket.slowCalls.sum();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the bucket of the given time slot, recycling it if it still holds an older slot.
+     * Outcomes recorded concurrently with the recycling may get lost, which is acceptable for a rate.
+     */
+    private Bucket bucketFor(final long slot) {
+        final Bucket bucket = buckets[(int) (slot % buckets.length)];
+        final long bucketSlot = bucket.slot.get();
+        if (bucketSlot < slot && bucket.slot.compareAndSet(bucketSlot, slot)) {
+            bucket.successes.reset();
+            bucket.failures.reset();
+            bucket.slowCalls.reset();
+        }
+        return bucket;
+    }
+
+    private void resetWindow() {
+        for (Bucket bucket : buckets) {
+            bucket.slot.set(Long.MIN_VALUE / 2);
+            bucket.successes.reset();
+            bucket.failures.reset();
+            bucket.slowCalls.reset();
+        }
+    }
+
+    private static final class Bucket {
+
+        private final AtomicLong slot = new AtomicLong(Long.MIN_VALUE / 2);
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder slowCalls = new LongAdder();
+    }
+}
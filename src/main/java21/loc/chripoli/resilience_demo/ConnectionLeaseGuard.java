@@ -0,0 +1,92 @@
+package loc.chripoli.resilience_demo;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Guard letting attempts on virtual threads wait for a pooled connection without pinning their carrier thread.
+ * <p>
+ * Apache's connection pool waits for a lease inside a {@code synchronized} block, which pins the carrier thread. Once
+ * all carriers are pinned by callers waiting for a connection, the attempts holding the connections cannot resume to
+ * hand them back. This guard admits an attempt on a virtual thread only once a connection of its route and of the
+ * pool is free, parking the virtual thread on a {@link Semaphore} meanwhile. The permits are held for the attempt only,
+ * not during the retry delays. Attempts on platform threads pass, they wait in the pool as before.
+ * <p>
+ * One guard is shared by all {@link VirtualThreadClient}s of a {@link JerseyTestClient}, see
+ * {@link #of(JerseyTestClient)}.
+ *
+ * @author chripoli
+ */
+final class ConnectionLeaseGuard implements AttemptGuard {
+
+    private static final Permit NO_OP = (response, failure, latencyNanos) -> { };
+
+    private final Semaphore connections;
+    private final PerHostRegistry<Semaphore> routes;
+
+    private ConnectionLeaseGuard(final int maxTotal, final int maxPerRoute) {
+        this.connections = new Semaphore(maxTotal, true);
+        // a route is only evicted while none of its permits is held, see PerHostRegistry
+        this.routes = new PerHostRegistry<Semaphore>(host -> new Semaphore(maxPerRoute, true))
+                .withExpireAfterAccess(Duration.ofMinutes(1));
+    }
+
+    /**
+     * Returns the guard of the client, registering it on first use.
+     *
+     * @param client
+     *          client whose connection pool is guarded
+     * @return guard sized to the pool of the client
+     */
+    static ConnectionLeaseGuard of(final JerseyTestClient client) {
+        return client.withSharedGuard(ConnectionLeaseGuard.class,
+                c -> new ConnectionLeaseGuard(c.getMaxTotalConnections(), c.getMaxConnectionsPerRoute()));
+    }
+
+    @Override
+    public Permit acquire(final String host, final int attempt) throws InterruptedException {
+        if (!Thread.currentThread().isVirtual()) {
+            return NO_OP;
+        }
+        final PerHostRegistry.Entry<Semaphore> route = routes.lease(host);
+        try {
+            route.value().acquire();
+            try {
+                connections.acquire();
+            } catch (InterruptedException e) {
+                route.value().release();
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            route.release();
+            throw e;
+        }
+        return permit(route);
+    }
+
+    @Override
+    public Permit acquireNow(final String host, final int attempt) {
+        if (!Thread.currentThread().isVirtual()) {
+            return NO_OP;
+        }
+        final PerHostRegistry.Entry<Semaphore> route = routes.lease(host);
+        if (!route.value().tryAcquire()) {
+            route.release();
+            throw new BulkheadFullException(host, "No free connection of the route");
+        }
+        if (!connections.tryAcquire()) {
+            route.value().release();
+            route.release();
+            throw new BulkheadFullException(host, "No free connection of the pool");
+        }
+        return permit(route);
+    }
+
+    private Permit permit(final PerHostRegistry.Entry<Semaphore> route) {
+        return (response, failure, latencyNanos) -> {
+            connections.release();
+            route.value().release();
+            route.release();
+        };
+    }
+}
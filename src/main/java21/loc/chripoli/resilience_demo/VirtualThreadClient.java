@@ -0,0 +1,110 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+import net.jodah.failsafe.RetryPolicy;
+
+import javax.ws.rs.core.Response;
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Execution mode which runs every resilient call of a {@link JerseyTestClient} on its own virtual thread.
+ * <p>
+ * The blocking {@link JerseyTestClient#executeCall(String, RetryPolicy, CircuitBreaker)} is kept as is: socket I/O,
+ * waiting for a pooled connection and the retry sleeps of the {@link RetryPolicy} backoff unmount the virtual thread,
+ * so tens of thousands of calls in flight only need a handful of carrier threads.
+ * <p>
+ * Apache's connection pool waits for a lease inside a {@code synchronized} block, which pins the carrier thread. The
+ * execution mode therefore registers a {@link ConnectionLeaseGuard} with the client, shared by all execution modes of
+ * the client: every attempt of a virtual thread parks until a connection of its route and of the pool is free, and
+ * the calls waiting for their next retry do not hold a connection.
+ *
+ * @author chripoli
+ */
+public class VirtualThreadClient implements Closeable {
+
+    private final JerseyTestClient client;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Creates the virtual-thread execution mode for the given client.
+     * The client stays owned by the caller and is not closed by {@link #close()}.
+     *
+     * @param client
+     *          client executing the calls
+     */
+    public VirtualThreadClient(final JerseyTestClient client) {
+        this.client = client;
+        ConnectionLeaseGuard.of(client);
+    }
+
+    /**
+     * Executes a HTTP request with resilience options enabled on a virtual thread and waits for its response.
+     * If the caller already runs on a virtual thread, the call is executed right there.
+     *
+     * @param url
+     *          URL to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @return
+     *          Response
+     * @throws InterruptedException
+     *          if the caller was interrupted while waiting for the response
+     */
+    public Response executeCall(final String url, final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker) throws InterruptedException {
+
+        if (Thread.currentThread().isVirtual()) {
+            return client.executeCall(url, retryPolicy, circuitBreaker);
+        }
+
+        final Future<Response> future = executor.submit(() -> client.executeCall(url, retryPolicy, circuitBreaker));
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+
+    }
+
+    /**
+     * Starts a HTTP request with resilience options enabled on a new virtual thread.
+     *
+     * @param url
+     *          URL to call
+     * @param retryPolicy
+     *          RetryPolicy to use
+     * @param circuitBreaker
+     *          CircuitBreaker configuration to use
+     * @return
+     *          future completed with the Response, or exceptionally if the call finally failed
+     */
+    public CompletableFuture<Response> submitCall(final String url, final RetryPolicy<Response> retryPolicy, final CircuitBreaker<Response> circuitBreaker) {
+
+        return CompletableFuture.supplyAsync(() -> client.executeCall(url, retryPolicy, circuitBreaker), executor);
+
+    }
+
+    /**
+     * Stops accepting new calls. Calls in flight are completed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
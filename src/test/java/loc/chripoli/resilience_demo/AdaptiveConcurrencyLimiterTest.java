@@ -0,0 +1,105 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for the AdaptiveConcurrencyLimiter.
+ *
+ * @author chripoli
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final String HOST = "localhost:8089";
+    private static final long LATENCY = 1_000_000;
+
+    /**
+     * Attempts beyond the current limit are rejected.
+     */
+    @Test
+    public void testRejectsBeyondLimit() {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2);
+        limiter.acquire(HOST, 1);
+        limiter.acquire(HOST, 1);
+
+        try {
+            limiter.acquire(HOST, 1);
+            fail("Expected ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+            assertEquals(1, limiter.getRejectedCount());
+        }
+    }
+
+    /**
+     * A fully used limit grows while latencies stay stable and is cut on errors.
+     */
+    @Test
+    public void testGrowsAdditivelyAndCutsMultiplicatively() {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10).withBackoffRatio(0.5);
+        final Response ok = Response.ok().build();
+
+        for (int round = 0; round < 20; round++) {
+            final List<AttemptGuard.Permit> permits = new ArrayList<>();
+            for (int i = 0; i < (int) limiter.getLimit(); i++) {
+                permits.add(limiter.acquire(HOST, 1));
+            }
+            for (AttemptGuard.Permit permit : permits) {
+                permit.release(ok, null, LATENCY);
+            }
+        }
+        final double grownLimit = limiter.getLimit();
+        assertTrue("Limit did not grow: " + grownLimit, grownLimit >= 18);
+        assertEquals(0, limiter.getInFlight());
+
+        limiter.acquire(HOST, 1).release(Response.serverError().build(), null, LATENCY);
+        assertEquals(grownLimit * 0.5, limiter.getLimit(), 0.001);
+    }
+
+    /**
+     * Attempts much slower than the baseline count as congestion, rejections by other guards are ignored.
+     */
+    @Test
+    public void testSlowAttemptsSignalCongestion() {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10).withLatencyTolerance(2);
+        final Response ok = Response.ok().build();
+
+        limiter.acquire(HOST, 1).release(ok, null, LATENCY);
+        limiter.acquire(HOST, 1).release(null, new BulkheadFullException(HOST, "full"), 0);
+        assertEquals(10, limiter.getLimit(), 0.001);
+
+        limiter.acquire(HOST, 1).release(ok, null, 10 * LATENCY);
+        assertEquals(9, limiter.getLimit(), 0.001);
+    }
+
+    /**
+     * After a lasting latency step, the baseline catches up with the new latency, which no longer counts as congestion.
+     */
+    @Test
+    public void testBaselineFollowsLatencyStep() {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10).withLatencyTolerance(2);
+        final Response ok = Response.ok().build();
+
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire(HOST, 1).release(ok, null, LATENCY);
+        }
+        for (int i = 0; i < 200; i++) {
+            limiter.acquire(HOST, 1).release(ok, null, 10 * LATENCY);
+        }
+        assertTrue("Baseline stuck at " + limiter.getBaselineNanos(), limiter.getBaselineNanos() > 5 * LATENCY);
+
+        final double limitAfterStep = limiter.getLimit();
+        final List<AttemptGuard.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < (int) limitAfterStep; i++) {
+            permits.add(limiter.acquire(HOST, 1));
+        }
+        for (AttemptGuard.Permit permit : permits) {
+            permit.release(ok, null, 10 * LATENCY);
+        }
+        assertTrue("Limit did not grow again: " + limiter.getLimit(), limiter.getLimit() > limitAfterStep);
+    }
+}
@@ -0,0 +1,66 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test class for the BufferedResponse.
+ *
+ * @author chripoli
+ */
+public class BufferedResponseTest {
+
+    /**
+     * Copies can be read repeatedly and independently of each other.
+     *
+     * @throws Exception
+     *          if the entity stream could not be read
+     */
+    @Test
+    public void testCopiesAreIndependent() throws Exception {
+        final BufferedResponse response = BufferedResponse.of(Response.ok("Result", MediaType.TEXT_PLAIN_TYPE)
+                .header("X-Test", "a")
+                .build());
+        final BufferedResponse copy = response.copy();
+
+        assertEquals(200, copy.getStatus());
+        assertEquals("Result", copy.readEntity(String.class));
+        assertEquals("Result", copy.readEntity(String.class));
+        try (InputStream stream = copy.readEntity(InputStream.class)) {
+            assertEquals('R', stream.read());
+        }
+        assertEquals(MediaType.TEXT_PLAIN_TYPE, copy.getMediaType());
+        assertEquals("a", copy.getHeaderString("x-test"));
+
+        copy.getStringHeaders().putSingle("X-Test", "b");
+        copy.close();
+        assertEquals("a", response.getHeaderString("X-Test"));
+        assertEquals("Result", response.readEntity(String.class));
+        try {
+            copy.readEntity(String.class);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Text is decoded with the charset of the content type.
+     */
+    @Test
+    public void testCharset() {
+        final BufferedResponse response = BufferedResponse.of(Response.ok("Grüße".getBytes(StandardCharsets.ISO_8859_1))
+                .header(HttpHeaders.CONTENT_TYPE, "text/plain; charset=ISO-8859-1")
+                .build());
+
+        assertEquals("Grüße", response.readEntity(String.class));
+        assertTrue(response.hasEntity());
+    }
+}
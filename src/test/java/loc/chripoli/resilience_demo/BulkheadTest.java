@@ -0,0 +1,93 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the Bulkhead.
+ *
+ * @author chripoli
+ */
+public class BulkheadTest {
+
+    private static final String HOST = "localhost:8089";
+
+    /**
+     * Without a wait queue, an attempt is rejected as soon as all slots are taken.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testRejectsImmediatelyWhenFull() throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead(2);
+
+        final AttemptGuard.Permit first = bulkhead.acquire(HOST, 1);
+        bulkhead.acquire(HOST, 1);
+        assertEquals(2, bulkhead.getConcurrentCalls());
+
+        try {
+            bulkhead.acquire(HOST, 1);
+            fail("Expected BulkheadFullException");
+        } catch (BulkheadFullException e) {
+            assertEquals(HOST, e.getHost());
+        }
+
+        first.release(null, null, 0);
+        bulkhead.acquire(HOST, 1);
+        assertEquals(3, bulkhead.getAdmittedCount());
+        assertEquals(1, bulkhead.getRejectedCount());
+    }
+
+    /**
+     * A waiting attempt gets the slot released by another one, further attempts beyond the queue size are rejected.
+     *
+     * @throws Exception
+     *          if the waiting attempt failed
+     */
+    @Test
+    public void testWaitsForReleasedSlot() throws Exception {
+        final Bulkhead bulkhead = new Bulkhead(1).withMaxWait(Duration.ofSeconds(10), 1);
+        final AttemptGuard.Permit permit = bulkhead.acquire(HOST, 1);
+
+        final CompletableFuture<AttemptGuard.Permit> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return bulkhead.acquire(HOST, 1);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (bulkhead.getWaitingCalls() == 0) {
+            Thread.sleep(10);
+        }
+
+        try {
+            bulkhead.acquire(HOST, 1);
+            fail("Expected BulkheadFullException");
+        } catch (BulkheadFullException e) {
+            assertEquals(1, bulkhead.getRejectedCount());
+        }
+
+        permit.release(null, null, 0);
+        assertNotNull(waiting.get(5, TimeUnit.SECONDS));
+        assertTrue(bulkhead.getMaxQueueTimeNanos() > 0);
+    }
+
+    /**
+     * A waiting attempt is rejected once the wait timed out.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test(expected = BulkheadFullException.class)
+    public void testRejectsAfterWaitTimeout() throws InterruptedException {
+        final Bulkhead bulkhead = new Bulkhead(1).withMaxWait(Duration.ofMillis(50), 10);
+        bulkhead.acquire(HOST, 1);
+        bulkhead.acquire(HOST, 1);
+    }
+}
@@ -0,0 +1,102 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the CallBatch.
+ *
+ * @author chripoli
+ */
+public class CallBatchTest {
+
+    /**
+     * No more calls than the parallelism are in flight, and results are yielded in completion order.
+     */
+    @Test
+    public void testParallelismAndCompletionOrder() {
+        final Map<String, CompletableFuture<Response>> calls = new ConcurrentHashMap<>();
+        final List<String> urls = Arrays.asList("a", "b", "c", "d");
+        final CallBatch batch = new CallBatch(urls, 2, null, url -> {
+            final CompletableFuture<Response> call = new CompletableFuture<>();
+            calls.put(url, call);
+            return call;
+        });
+        batch.start();
+        assertEquals(2, calls.size());
+        assertTrue(calls.containsKey("a") && calls.containsKey("b"));
+
+        calls.get("b").complete(Response.ok().build());
+        assertEquals(3, calls.size());
+        calls.get("c").complete(Response.serverError().build());
+        calls.get("a").completeExceptionally(new IllegalStateException());
+        calls.get("d").complete(Response.ok().build());
+
+        final List<String> order = new ArrayList<>();
+        final List<CallResult.Outcome> outcomes = new ArrayList<>();
+        while (batch.hasNext()) {
+            final CallResult result = batch.next();
+            order.add(result.getUrl());
+            outcomes.add(result.getOutcome());
+        }
+        assertEquals(Arrays.asList("b", "c", "a", "d"), order);
+        assertEquals(Arrays.asList(CallResult.Outcome.SUCCESS, CallResult.Outcome.FAILURE, CallResult.Outcome.FAILURE,
+                CallResult.Outcome.SUCCESS), outcomes);
+        assertTrue(batch.whenDone().isDone());
+    }
+
+    /**
+     * Calls completing synchronously start the next ones without recursing, even for large batches.
+     */
+    @Test
+    public void testSynchronousCompletion() {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CallBatch batch = new CallBatch(Collections.nCopies(100_000, "url"), 4, null, url -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            inFlight.decrementAndGet();
+            return CompletableFuture.completedFuture(Response.ok().build());
+        });
+        batch.start();
+
+        assertEquals(100_000, batch.getCompletedCount());
+        assertEquals(1, maxInFlight.get());
+    }
+
+    /**
+     * Once the deadline passed, the URLs not started yet are reported as timed out without being called.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testExpiry() throws InterruptedException {
+        final AtomicInteger started = new AtomicInteger();
+        final CallBatch batch = new CallBatch(Arrays.asList("a", "b", "c"), 1, Deadline.after(Duration.ofSeconds(10)), url -> {
+            started.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        batch.start();
+        assertNull(batch.next(50, TimeUnit.MILLISECONDS));
+
+        batch.expire();
+        assertEquals(CallResult.Outcome.TIMEOUT, batch.next().getOutcome());
+        assertEquals("c", batch.next().getUrl());
+        assertTrue(batch.hasNext());
+        assertEquals(1, started.get());
+        assertEquals(2, batch.getCompletedCount());
+    }
+}
@@ -0,0 +1,174 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Test class for the CallPublisher.
+ *
+ * @author chripoli
+ */
+public class CallPublisherTest {
+
+    /**
+     * Calls are only started as far as requested, and results are delivered in completion order.
+     */
+    @Test
+    public void testCallsFollowDemand() {
+        final Map<String, CompletableFuture<Response>> calls = new ConcurrentHashMap<>();
+        final CallPublisher publisher = new CallPublisher(Arrays.asList("a", "b", "c", "d"), new BatchOptions().withParallelism(3),
+                (url, options) -> {
+                    final CompletableFuture<Response> call = new CompletableFuture<>();
+                    calls.put(url, call);
+                    return call;
+                });
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        assertTrue(calls.isEmpty());
+
+        subscriber.subscription.request(2);
+        assertEquals(2, calls.size());
+        calls.get("b").complete(Response.ok().build());
+        calls.get("a").completeExceptionally(new IllegalStateException());
+        assertEquals(Arrays.asList("b", "a"), subscriber.urls);
+        assertEquals(CallResult.Outcome.FAILURE, subscriber.results.get(1).getOutcome());
+        assertEquals(2, calls.size());
+
+        subscriber.subscription.request(5);
+        assertEquals(4, calls.size());
+        calls.get("d").complete(Response.ok().build());
+        assertFalse(subscriber.completed);
+        calls.get("c").complete(Response.serverError().build());
+        assertEquals(Arrays.asList("b", "a", "d", "c"), subscriber.urls);
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    /**
+     * Results of calls completed after cancellation are not delivered, and no further URLs are pulled.
+     */
+    @Test
+    public void testCancel() {
+        final AtomicInteger pulled = new AtomicInteger();
+        final Iterable<String> urls = () -> new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                return "url" + pulled.incrementAndGet();
+            }
+        };
+        final List<CompletableFuture<Response>> calls = new ArrayList<>();
+        final CallPublisher publisher = new CallPublisher(urls, new BatchOptions(), (url, options) -> {
+            final CompletableFuture<Response> call = new CompletableFuture<>();
+            calls.add(call);
+            return call;
+        });
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(16, pulled.get());
+        subscriber.subscription.cancel();
+        calls.forEach(call -> call.complete(Response.ok().build()));
+
+        assertEquals(16, pulled.get());
+        assertTrue(subscriber.results.isEmpty());
+        assertFalse(subscriber.completed);
+    }
+
+    /**
+     * Synchronously completing calls under unbounded demand are delivered without recursion, and a failing source ends
+     * the stream with an error after the results of the calls started before.
+     */
+    @Test
+    public void testSynchronousCallsAndFailingSource() {
+        final Iterator<String> source = IntStream.range(0, 50_000).mapToObj(Integer::toString).iterator();
+        final Iterable<String> urls = () -> new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (!source.hasNext()) {
+                    throw new IllegalStateException("Source failed");
+                }
+                return source.next();
+            }
+        };
+        final CallPublisher publisher = new CallPublisher(urls, new BatchOptions(),
+                (url, options) -> CompletableFuture.completedFuture(Response.ok().build()));
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(50_000, subscriber.results.size());
+        assertTrue(subscriber.error instanceof IllegalStateException);
+        assertFalse(subscriber.completed);
+    }
+
+    /**
+     * A request of zero elements violates rule 3.9 and ends the stream with an error.
+     */
+    @Test
+    public void testInvalidRequest() {
+        final CallPublisher publisher = new CallPublisher(Arrays.asList("a"), new BatchOptions(),
+                (url, options) -> CompletableFuture.completedFuture(Response.ok().build()));
+        final RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        subscriber.subscription.request(1);
+        assertTrue(subscriber.results.isEmpty());
+    }
+
+    private static final class RecordingSubscriber implements Subscriber<CallResult> {
+
+        private final List<CallResult> results = new ArrayList<>();
+        private final List<String> urls = new ArrayList<>();
+        private Subscription subscription;
+        private boolean completed;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(final CallResult result) {
+            results.add(result);
+            urls.add(result.getUrl());
+        }
+
+        @Override
+        public void onError(final Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
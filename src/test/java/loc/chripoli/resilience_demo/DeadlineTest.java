@@ -0,0 +1,73 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the Deadline.
+ *
+ * @author chripoli
+ */
+public class DeadlineTest {
+
+    /**
+     * The time left shrinks and never becomes negative once the deadline has passed.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testRemaining() throws InterruptedException {
+        final Deadline deadline = Deadline.after(Duration.ofMillis(100));
+
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remaining(TimeUnit.MILLISECONDS) <= 100);
+        assertTrue(deadline.remaining(TimeUnit.MILLISECONDS) > 0);
+
+        Thread.sleep(150);
+        assertTrue(deadline.isExpired());
+        assertEquals(Duration.ZERO, deadline.remaining());
+        assertEquals(0, deadline.remaining(TimeUnit.MILLISECONDS));
+        assertEquals("0", deadline.toHeaderValue());
+    }
+
+    /**
+     * The header carries the time left and is read back as a deadline after that time; malformed values are ignored.
+     */
+    @Test
+    public void testHeaderRoundTrip() {
+        final Deadline deadline = Deadline.after(Duration.ofSeconds(5));
+        final long headerMillis = Long.parseLong(deadline.toHeaderValue());
+        assertTrue(headerMillis <= 5000 && headerMillis > 4000);
+
+        final Deadline inherited = Deadline.fromHeader(deadline.toHeaderValue());
+        assertNotNull(inherited);
+        assertTrue(inherited.remaining(TimeUnit.MILLISECONDS) <= 5000);
+        assertTrue(Deadline.fromHeader("-20").isExpired());
+
+        assertNull(Deadline.fromHeader(null));
+        assertNull(Deadline.fromHeader("soon"));
+        assertNull(Deadline.fromHeader(Long.toString(Long.MAX_VALUE)));
+    }
+
+    /**
+     * The earlier deadline wins, both from the options' timeout and from an inherited deadline.
+     */
+    @Test
+    public void testMin() {
+        final Deadline early = Deadline.after(Duration.ofSeconds(1));
+        final Deadline late = Deadline.after(Duration.ofSeconds(10));
+
+        assertSame(early, early.min(late));
+        assertSame(early, late.min(early));
+        assertSame(late, late.min(null));
+
+        assertSame(early, new CallOptions().withTimeout(Duration.ofSeconds(5)).withDeadline(early).newDeadline());
+        assertTrue(new CallOptions().withTimeout(Duration.ofSeconds(5)).withDeadline(late).newDeadline().compareTo(late) < 0);
+        assertNull(new CallOptions().withAttemptTimeout(Duration.ofSeconds(1)).newDeadline());
+    }
+}
@@ -0,0 +1,99 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the HashedWheelTimer.
+ *
+ * @author chripoli
+ */
+public class HashedWheelTimerTest {
+
+    private ExecutorService workers;
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setup() {
+        workers = Executors.newFixedThreadPool(2);
+        timer = new HashedWheelTimer(Duration.ofMillis(5), 8, workers);
+    }
+
+    @After
+    public void tearDown() {
+        timer.close();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Tasks run no earlier than their delay, also if the delay spans several rounds of the wheel.
+     *
+     * @throws Exception
+     *          if a task failed or did not run in time
+     */
+    @Test
+    public void testRunsAfterDelay() throws Exception {
+        final long start = System.nanoTime();
+
+        final ScheduledFuture<?> now = timer.schedule(() -> System.nanoTime() - start, 0, TimeUnit.MILLISECONDS);
+        final ScheduledFuture<?> later = timer.schedule(() -> System.nanoTime() - start, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue((Long) now.get(1, TimeUnit.SECONDS) < TimeUnit.MILLISECONDS.toNanos(50));
+        final long elapsed = (Long) later.get(1, TimeUnit.SECONDS);
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    /**
+     * Cancelled tasks never run and no longer count as pending.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testCancel() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+
+        final ScheduledFuture<?> task = timer.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        assertEquals(1, timer.getPendingCount());
+        assertTrue(task.cancel(false));
+        assertEquals(0, timer.getPendingCount());
+
+        Thread.sleep(100);
+        assertEquals(0, runs.get());
+        assertTrue(task.isCancelled());
+    }
+
+    /**
+     * Many timers are scheduled cheaply and all of them fire.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testManyTimers() throws InterruptedException {
+        final int count = 100_000;
+        final CountDownLatch fired = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            timer.schedule(() -> {
+                fired.countDown();
+                return null;
+            }, 1 + i % 200, TimeUnit.MILLISECONDS);
+        }
+
+        assertTrue(fired.await(10, TimeUnit.SECONDS));
+        assertEquals(0, timer.getPendingCount());
+    }
+}
@@ -0,0 +1,50 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the HedgePolicy.
+ *
+ * @author chripoli
+ */
+public class HedgePolicyTest {
+
+    private static final long MILLIS_1 = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MILLIS_50 = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * The percentile replaces the fixed delay as soon as the minimum number of samples is reached, even below the
+     * recompute interval, and is recomputed every interval after that.
+     */
+    @Test
+    public void testDelayPercentileFromMinSamples() {
+        final HedgePolicy hedgePolicy = new HedgePolicy().withDelay(Duration.ofMillis(100)).withDelayPercentile(0.5, 10);
+
+        for (int i = 0; i < 9; i++) {
+            hedgePolicy.recordLatency(MILLIS_1);
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), hedgePolicy.getHedgeDelayNanos());
+        hedgePolicy.recordLatency(MILLIS_1);
+        assertTrue(hedgePolicy.getHedgeDelayNanos() < 2 * MILLIS_1);
+
+        for (int i = 0; i < 99; i++) {
+            hedgePolicy.recordLatency(MILLIS_50);
+        }
+        assertTrue(hedgePolicy.getHedgeDelayNanos() < 2 * MILLIS_1);
+        hedgePolicy.recordLatency(MILLIS_50);
+        assertTrue(hedgePolicy.getHedgeDelayNanos() > MILLIS_50 / 2);
+    }
+
+    /**
+     * At least one sample is needed before the percentile is used.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroMinSamples() {
+        new HedgePolicy().withDelayPercentile(0.95, 0);
+    }
+}
@@ -6,10 +6,11 @@ import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import com.github.tomakehurst.wiremock.stubbing.Scenario;
 import net.jodah.failsafe.CircuitBreaker;
+import net.jodah.failsafe.CircuitBreakerOpenException;
 import net.jodah.failsafe.RetryPolicy;
+import net.jodah.failsafe.TimeoutExceededException;
 import org.junit.*;
 
-import static java.lang.System.out;
 import static java.lang.Thread.*;
 import static org.junit.Assert.*;
 
@@ -17,8 +18,15 @@ import javax.ws.rs.core.Response;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Test class for the JerseyTestClient.
@@ -34,10 +42,26 @@ public class JerseyTestClientTest {
     public final int numberOfThreads = 30;
 
     /**
-     * WireMock rule
+     * Number of concurrently outstanding asynchronous calls.
+     */
+    public final int numberOfAsyncCalls = 1000;
+
+    /**
+     * WireMock rule, without gzip: its gzip handler adds a {@code Vary} header to every response, which keeps the
+     * ResponseCache from storing them
      */
     @Rule
-    public WireMockRule wireMockRule = new WireMockRule(new WireMockConfiguration().port(8089).notifier(new ConsoleNotifier(true)));
+    public WireMockRule wireMockRule = new WireMockRule(new WireMockConfiguration().port(8089).gzipDisabled(true).notifier(new ConsoleNotifier(true)));
+
+    /**
+     * Client shared by all executor threads, so they reuse pooled connections.
+     */
+    private JerseyTestClient testClient;
+
+    /**
+     * Metrics of the attempts and circuit breakers of the shared client.
+     */
+    private ResilienceMetrics metrics;
 
     /**
      * Setup before the test.
@@ -45,6 +69,9 @@ public class JerseyTestClientTest {
      */
     @Before
     public void setup() {
+        metrics = new ResilienceMetrics();
+        testClient = new JerseyTestClient().withGuard(metrics);
+
         // WireMock stub for normal operation.
         // If ScenarioState is Scenario.STARTED, it returns a http response with status 200
         WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/test"))
@@ -62,6 +89,35 @@ public class JerseyTestClientTest {
                 .willReturn(WireMock.aResponse()
                         .withStatus(500)));
 
+        // WireMock stub for a slow but healthy endpoint, used for hedging
+        WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/slow"))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(5000)
+                        .withBody("Slow Result")));
+
+        // WireMock stub for an endpoint called by many threads at once, used for request coalescing
+        WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/coalesce"))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(500)
+                        .withBody("Coalesced Result")));
+
+        // WireMock stub for a cacheable endpoint
+        WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/cached"))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withHeader("Cache-Control", "max-age=60")
+                        .withBody("Cached Result")));
+
+        // WireMock stub for a cacheable JSON endpoint
+        WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/cached/json"))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Cache-Control", "max-age=60")
+                        .withBody("{\"message\":\"Cached JSON\"}")));
+
         // WireMock stub for setting the state to 'Fail State' to simulate a service outage
         WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/setStateFail"))
                 .inScenario("Retry-Scenario")
@@ -75,6 +131,14 @@ public class JerseyTestClientTest {
                 .willReturn(WireMock.aResponse().withStatus(200)));
     }
 
+    /**
+     * Closes the shared client and its connection pool.
+     */
+    @After
+    public void tearDown() {
+        testClient.close();
+    }
+
     /**
      * Simulates a test execution to a call to the service.
      * Due to the resilience configuration it should pass, even if the service is down for a certain amount of time.
@@ -100,6 +164,498 @@ public class JerseyTestClientTest {
             thread.join();
         }
 
+        // every thread finally succeeded, after riding out the outage with retries and an open circuit
+        final ResilienceMetrics.HostMetrics hostMetrics = metrics.getHostMetrics().get("localhost:8089");
+        assertEquals(numberOfThreads, hostMetrics.getSuccessCount());
+        assertTrue(hostMetrics.getRetryCount() > 0);
+        assertEquals(hostMetrics.getAttemptCount(), hostMetrics.getLatencies().getCount());
+        assertTrue(metrics.getBreakerMetrics().get("test").getTransitionCount(CircuitBreaker.State.OPEN) > 0);
+
+    }
+
+    /**
+     * Issues many asynchronous calls at once.
+     * None of them occupies a thread of its own, still all of them have to succeed.
+     *
+     * @throws Exception
+     *          if a call failed or did not complete in time
+     */
+    @Test
+    public void testExecuteCallAsync() throws Exception {
+
+        final RetryPolicy<Response> retryPolicy = getRetryPolicy();
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+        final List<CompletableFuture<Response>> futures = new ArrayList<>();
+
+        for (int i = 0; i < numberOfAsyncCalls; i++) {
+            futures.add(testClient.executeCallAsync("http://localhost:8089/test", retryPolicy, circuitBreaker));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        for (CompletableFuture<Response> future : futures) {
+            assertEquals(200, future.join().getStatus());
+        }
+
+    }
+
+    /**
+     * The composed executor is built once per pair of policies and reused afterwards, while policies built per call do
+     * not grow the cache without bound.
+     */
+    @Test
+    public void testExecutorIsCachedPerPolicyPair() {
+
+        final RetryPolicy<Response> retryPolicy = getRetryPolicy();
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+
+        assertSame(testClient.executorFor(retryPolicy, circuitBreaker), testClient.executorFor(retryPolicy, circuitBreaker));
+        assertNotSame(testClient.executorFor(retryPolicy, circuitBreaker), testClient.executorFor(retryPolicy, getCircuitBreaker()));
+
+        for (int i = 0; i < 1000; i++) {
+            testClient.executorFor(getRetryPolicy(), circuitBreaker);
+            testClient.executorFor(retryPolicy, getCircuitBreaker());
+        }
+        assertTrue(testClient.cachedExecutorCount() <= 2 * 64);
+
+    }
+
+    /**
+     * A slow primary request is overtaken by the backup request to the alternate URL.
+     *
+     * @throws Exception
+     *          if the call failed or did not complete in time
+     */
+    @Test
+    public void testExecuteCallHedged() throws Exception {
+
+        final HedgePolicy hedgePolicy = new HedgePolicy().withDelay(Duration.ofMillis(100)).withMaxHedgeRatio(1);
+        final long start = System.nanoTime();
+
+        final Response response = testClient.executeCallHedged("http://localhost:8089/slow", "http://localhost:8089/test",
+                getRetryPolicy(), getCircuitBreaker(), hedgePolicy).get(10, TimeUnit.SECONDS);
+
+        assertEquals("Result", response.readEntity(String.class));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+        assertEquals(1, hedgePolicy.getHedgeCount());
+
+    }
+
+    /**
+     * An open circuit breaker of one host does not affect calls to another host.
+     */
+    @Test
+    public void testExecuteCallWithPolicyRegistry() {
+
+        final PolicyRegistry policies = new PolicyRegistry(host -> new RetryPolicy<Response>().withMaxRetries(0), host -> getCircuitBreaker());
+        policies.get("127.0.0.1:8089").getCircuitBreaker().open();
+
+        assertEquals(200, testClient.executeCall("http://localhost:8089/test", policies).getStatus());
+        try {
+            testClient.executeCall("http://127.0.0.1:8089/test", policies);
+            fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException e) {
+            assertTrue(policies.get("localhost:8089").getCircuitBreaker().isClosed());
+        }
+        assertEquals(2, policies.size());
+
+    }
+
+    /**
+     * The policies of a host are not evicted while a call is using them, so the call and later ones share them.
+     *
+     * @throws Exception
+     *          if the asynchronous call failed
+     */
+    @Test
+    public void testExecuteCallKeepsLeasedPolicies() throws Exception {
+
+        final PolicyRegistry policies = new PolicyRegistry(host -> new RetryPolicy<Response>().withMaxRetries(0), host -> getCircuitBreaker())
+                .withMaximumSize(1);
+        final PolicyRegistry.HostPolicies hostPolicies = policies.get("localhost:8089");
+
+        final CompletableFuture<Response> call = testClient.executeCallAsync("http://localhost:8089/coalesce", policies);
+        assertEquals(200, testClient.executeCall("http://127.0.0.1:8089/test", policies).getStatus());
+        assertEquals(200, call.get(5, TimeUnit.SECONDS).getStatus());
+
+        assertSame(hostPolicies, policies.get("localhost:8089"));
+
+    }
+
+    /**
+     * Attempts rejected by a full bulkhead are retried, but never recorded as failures by the circuit breaker.
+     *
+     * @throws Exception
+     *          if the asynchronous call failed unexpectedly
+     */
+    @Test
+    public void testGuardRejectionsDoNotTripCircuitBreaker() throws Exception {
+
+        final Bulkhead bulkhead = new Bulkhead(1);
+        testClient.withGuard(bulkhead);
+        final RetryPolicy<Response> retryPolicy = new RetryPolicy<Response>().withMaxRetries(2);
+        final CircuitBreaker<Response> circuitBreaker = new CircuitBreaker<Response>().withFailureThreshold(1);
+        final AttemptGuard.Permit permit = bulkhead.acquire("localhost:8089", 1);
+
+        try {
+            testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker);
+            fail("Expected BulkheadFullException");
+        } catch (BulkheadFullException e) {
+            assertTrue(circuitBreaker.isClosed());
+        }
+        try {
+            testClient.executeCallAsync("http://localhost:8089/test", retryPolicy, circuitBreaker).get(5, TimeUnit.SECONDS);
+            fail("Expected BulkheadFullException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BulkheadFullException);
+        }
+        assertEquals(6, bulkhead.getRejectedCount());
+        assertTrue(circuitBreaker.isClosed());
+        assertEquals(0, circuitBreaker.getFailureCount());
+
+        permit.release(null, null, 0);
+        assertEquals(200, testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker).getStatus());
+
+    }
+
+    /**
+     * Asynchronous attempts are rejected by a full bulkhead instead of blocking a worker of the timer while waiting for a
+     * slot, synchronous ones still wait.
+     *
+     * @throws Exception
+     *          if a call failed unexpectedly
+     */
+    @Test
+    public void testAsyncAttemptsDoNotWaitForGuards() throws Exception {
+
+        final Bulkhead bulkhead = new Bulkhead(1).withMaxWait(Duration.ofSeconds(30), 10);
+        testClient.withGuard(bulkhead);
+        final RetryPolicy<Response> retryPolicy = new RetryPolicy<Response>().withMaxRetries(2);
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+        final AttemptGuard.Permit permit = bulkhead.acquire("localhost:8089", 1);
+
+        try {
+            testClient.executeCallAsync("http://localhost:8089/test", retryPolicy, circuitBreaker).get(5, TimeUnit.SECONDS);
+            fail("Expected BulkheadFullException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BulkheadFullException);
+        }
+        assertEquals(3, bulkhead.getRejectedCount());
+        assertEquals(0, bulkhead.getMaxQueueTimeNanos());
+
+        final CompletableFuture<Response> waiting = CompletableFuture.supplyAsync(() ->
+                testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker));
+        while (bulkhead.getWaitingCalls() == 0) {
+            Thread.sleep(10);
+        }
+        permit.release(null, null, 0);
+        assertEquals(200, waiting.get(5, TimeUnit.SECONDS).getStatus());
+        assertEquals(3, bulkhead.getRejectedCount());
+
+    }
+
+    /**
+     * Concurrent calls of the same URL share upstream calls, still every caller reads the full entity.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testExecuteCallCoalesced() throws InterruptedException {
+
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        testClient.withRequestCoalescing(coalescer);
+        final RetryPolicy<Response> retryPolicy = getRetryPolicy();
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger results = new AtomicInteger();
+        final List<Thread> threadList = new ArrayList<>();
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    final Response response = testClient.executeCall("http://localhost:8089/coalesce", retryPolicy, circuitBreaker);
+                    if ("Coalesced Result".equals(response.readEntity(String.class))) {
+                        results.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            thread.start();
+            threadList.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threadList) {
+            thread.join();
+        }
+
+        assertEquals(numberOfThreads, results.get());
+        assertTrue(coalescer.getCoalescedCount() > 0);
+        assertEquals(numberOfThreads, coalescer.getLeaderCount() + coalescer.getCoalescedCount());
+        WireMock.verify((int) coalescer.getLeaderCount(), WireMock.getRequestedFor(WireMock.urlEqualTo("/coalesce")));
+        assertEquals(0, coalescer.getInFlightCount());
+
+    }
+
+    /**
+     * Callers waiting for a coalesced call give up at their own deadline, while the leader's call completes.
+     *
+     * @throws Exception
+     *          if waiting for a call failed unexpectedly
+     */
+    @Test
+    public void testExecuteCallCoalescedWaiterDeadline() throws Exception {
+
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        testClient.withRequestCoalescing(coalescer);
+        final RetryPolicy<Response> retryPolicy = getRetryPolicy();
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+        final CallOptions options = new CallOptions().withTimeout(Duration.ofMillis(100));
+
+        final CompletableFuture<Response> leader = testClient.executeCallAsync("http://localhost:8089/coalesce", retryPolicy, circuitBreaker);
+        final long start = System.nanoTime();
+        try {
+            testClient.executeCall("http://localhost:8089/coalesce", retryPolicy, circuitBreaker, options);
+            fail("Expected TimeoutExceededException");
+        } catch (TimeoutExceededException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+        }
+        try {
+            testClient.executeCallAsync("http://localhost:8089/coalesce", retryPolicy, circuitBreaker, options).get(5, TimeUnit.SECONDS);
+            fail("Expected TimeoutExceededException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutExceededException);
+        }
+
+        assertEquals("Coalesced Result", leader.get(5, TimeUnit.SECONDS).readEntity(String.class));
+        assertEquals(1, coalescer.getLeaderCount());
+        assertEquals(2, coalescer.getCoalescedCount());
+
+    }
+
+    /**
+     * A cached JSON response is mapped to a POJO by the message body readers of the client, also when served again.
+     */
+    @Test
+    public void testExecuteCallCachedJson() {
+
+        testClient.withResponseCache(new ResponseCache());
+        final RetryPolicy<Response> retryPolicy = getRetryPolicy();
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+
+        for (int i = 0; i < 2; i++) {
+            final Message message = testClient.executeCall("http://localhost:8089/cached/json", retryPolicy, circuitBreaker).readEntity(Message.class);
+            assertEquals("Cached JSON", message.message);
+        }
+        WireMock.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo("/cached/json")));
+
+    }
+
+    /**
+     * A fresh cached response is served without calling the service again.
+     *
+     * @throws Exception
+     *          if the asynchronous call failed
+     */
+    @Test
+    public void testExecuteCallCached() throws Exception {
+
+        final ResponseCache cache = new ResponseCache();
+        testClient.withResponseCache(cache);
+
+        assertEquals("Cached Result", testClient.executeCall("http://localhost:8089/cached", getRetryPolicy(), getCircuitBreaker())
+                .readEntity(String.class));
+        assertEquals("Cached Result", testClient.executeCallAsync("http://localhost:8089/cached", getRetryPolicy(), getCircuitBreaker())
+                .get(10, TimeUnit.SECONDS).readEntity(String.class));
+
+        WireMock.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo("/cached")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+    }
+
+    /**
+     * During an outage, the last good response is served as stale instead of failing, right away once the circuit
+     * breaker is open.
+     */
+    @Test
+    public void testExecuteCallStaleIfError() {
+
+        final ResponseCache cache = new ResponseCache().withStaleIfError(Duration.ofMinutes(5));
+        testClient.withResponseCache(cache);
+        final RetryPolicy<Response> retryPolicy = new RetryPolicy<Response>()
+                .handleResultIf((Response result) -> result.getStatus() == 500)
+                .withMaxRetries(2);
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+
+        assertEquals("Result", testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker).readEntity(String.class));
+        testClient.executeCall("http://localhost:8089/setStateFail");
+
+        final Response stale = testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker);
+        assertTrue(((BufferedResponse) stale).isStale());
+        assertEquals("Result", stale.readEntity(String.class));
+        assertTrue(stale.getHeaderString("Warning").startsWith("110"));
+        assertTrue(circuitBreaker.isOpen());
+
+        final long start = System.nanoTime();
+        assertTrue(((BufferedResponse) testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker)).isStale());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, cache.getStaleHitCount());
+
+    }
+
+    /**
+     * While a sliding window circuit breaker registered as guard is open, the stale response is served right away
+     * instead of retrying the rejected attempts.
+     */
+    @Test
+    public void testExecuteCallStaleIfErrorSlidingWindowBreaker() {
+
+        final ResponseCache cache = new ResponseCache().withStaleIfError(Duration.ofMinutes(5));
+        final SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker().withDelay(Duration.ofMinutes(1));
+        testClient.withResponseCache(cache).withGuard(breaker);
+        final RetryPolicy<Response> retryPolicy = new RetryPolicy<Response>()
+                .withDelay(Duration.ofSeconds(1))
+                .withMaxRetries(3);
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+
+        assertEquals("Result", testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker).readEntity(String.class));
+        breaker.open();
+
+        final long start = System.nanoTime();
+        final Response stale = testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker);
+        assertTrue(((BufferedResponse) stale).isStale());
+        assertEquals("Result", stale.readEntity(String.class));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, cache.getStaleHitCount());
+        WireMock.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo("/test")));
+
+    }
+
+    /**
+     * A hung upstream does not block the caller beyond the attempt timeout, and the timed out attempt is retried. The
+     * attempts fail with the Failsafe timeout, not the socket timeout.
+     */
+    @Test
+    public void testExecuteCallAttemptTimeout() {
+
+        final RetryPolicy<Response> retryPolicy = new RetryPolicy<Response>()
+                .handle(Exception.class)
+                .withMaxRetries(1);
+        final CallOptions options = new CallOptions().withAttemptTimeout(Duration.ofMillis(200));
+        final long start = System.nanoTime();
+
+        try {
+            testClient.executeCall("http://localhost:8089/slow", retryPolicy, new CircuitBreaker<Response>().withFailureThreshold(100), options);
+            fail("Expected the attempts to time out");
+        } catch (TimeoutExceededException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        }
+        WireMock.verify(2, WireMock.getRequestedFor(WireMock.urlEqualTo("/slow")));
+
+    }
+
+    /**
+     * The deadline stops unlimited retries: no retry is made once the time left is shorter than the retry delay.
+     */
+    @Test
+    public void testExecuteCallDeadlineStopsRetries() {
+
+        testClient.executeCall("http://localhost:8089/setStateFail");
+        final RetryPolicy<Response> retryPolicy = new RetryPolicy<Response>()
+                .handleResultIf((Response result) -> result.getStatus() == 500)
+                .withMaxRetries(-1)
+                .withDelay(Duration.ofMillis(400));
+        final CircuitBreaker<Response> circuitBreaker = new CircuitBreaker<Response>()
+                .handleResultIf((Response response) -> response.getStatus() == 500)
+                .withFailureThreshold(100);
+        final CallOptions options = new CallOptions().withTimeout(Duration.ofSeconds(1));
+        final long start = System.nanoTime();
+
+        assertEquals(500, testClient.executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker, options).getStatus());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        WireMock.verify(3, WireMock.getRequestedFor(WireMock.urlEqualTo("/test")));
+
+    }
+
+    /**
+     * Every attempt tells the upstream the time left, unless propagation is switched off.
+     */
+    @Test
+    public void testExecuteCallPropagatesDeadline() {
+
+        final Deadline inherited = Deadline.fromHeader("5000");
+        final CallOptions options = new CallOptions().withTimeout(Duration.ofSeconds(30)).withDeadline(inherited);
+
+        assertEquals(200, testClient.executeCall("http://localhost:8089/test", getRetryPolicy(), getCircuitBreaker(), options).getStatus());
+        WireMock.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo("/test"))
+                .withHeader(Deadline.HEADER, WireMock.matching("[1-4][0-9]{3}|5000")));
+
+        options.withDeadlinePropagation(false);
+        assertEquals(200, testClient.executeCall("http://localhost:8089/test", getRetryPolicy(), getCircuitBreaker(), options).getStatus());
+        WireMock.verify(1, WireMock.getRequestedFor(WireMock.urlEqualTo("/test")).withoutHeader(Deadline.HEADER));
+
+    }
+
+    /**
+     * A call fails with a timeout once its deadline passed, although the attempt itself has no timeout.
+     *
+     * @throws Exception
+     *          if waiting for the call failed
+     */
+    @Test
+    public void testExecuteCallAsyncDeadline() throws Exception {
+
+        final CallOptions options = new CallOptions().withTimeout(Duration.ofMillis(300));
+        try {
+            testClient.executeCall("http://localhost:8089/slow", getRetryPolicy(), getCircuitBreaker(), options);
+            fail("Expected the deadline to pass");
+        } catch (TimeoutExceededException e) {
+            assertNotNull(e.getTimeout());
+        }
+        final long start = System.nanoTime();
+
+        try {
+            testClient.executeCallAsync("http://localhost:8089/slow", getRetryPolicy(), getCircuitBreaker(), options).get(10, TimeUnit.SECONDS);
+            fail("Expected the deadline to pass");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutExceededException);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        }
+
+    }
+
+    /**
+     * A batch yields a result per URL; a slow URL times out with the batch instead of holding it up. The outcome of
+     * every URL follows from its stubbed delay: none for the fast ones, well beyond the batch timeout for the slow one.
+     */
+    @Test
+    public void testExecuteCalls() {
+
+        WireMock.stubFor(WireMock.get(WireMock.urlPathMatching("/batch/[0-9]+"))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withBody("Batch Result")));
+        final Map<String, CallResult.Outcome> expected = new HashMap<>();
+        for (int i = 0; i < 50; i++) {
+            expected.put("http://localhost:8089/batch/" + i, CallResult.Outcome.SUCCESS);
+        }
+        expected.put("http://localhost:8089/slow", CallResult.Outcome.TIMEOUT);
+        final BatchOptions batchOptions = new BatchOptions().withParallelism(8).withTimeout(Duration.ofSeconds(3));
+        final long start = System.nanoTime();
+
+        final CallBatch batch = testClient.executeCalls(expected.keySet(), getRetryPolicy(), getCircuitBreaker(), batchOptions);
+        final Map<String, CallResult.Outcome> outcomes = new HashMap<>();
+        while (batch.hasNext()) {
+            final CallResult result = batch.next();
+            assertNull(result.getUrl(), outcomes.put(result.getUrl(), result.getOutcome()));
+        }
+
+        assertEquals(expected, outcomes);
+        // the slow URL would only respond after 5 seconds
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
     }
 
     /**
@@ -110,8 +666,8 @@ public class JerseyTestClientTest {
     private List<Thread> prepareExecutionThreads() {
 
         final List<Thread> threadList = new ArrayList<>();
-        final RetryPolicy retryPolicy = getRetryPolicy();
-        final CircuitBreaker circuitBreaker = getCircuitBreaker();
+        final RetryPolicy<Response> retryPolicy = getRetryPolicy();
+        final CircuitBreaker<Response> circuitBreaker = metrics.instrument("test", getCircuitBreaker());
 
         for(int i = 0; i < numberOfThreads; i++) {
 
@@ -119,7 +675,6 @@ public class JerseyTestClientTest {
                 try {
                     sleep(ThreadLocalRandom.current().nextLong(20000));
 
-                final JerseyTestClient testClient = new JerseyTestClient();
                 assertEquals(200, testClient
                         .executeCall("http://localhost:8089/test", retryPolicy, circuitBreaker).getStatus());
                 } catch (InterruptedException e) {
@@ -142,10 +697,9 @@ public class JerseyTestClientTest {
         new Thread(() -> {
             try {
                 sleep(ThreadLocalRandom.current().nextLong(2000));
-                final JerseyTestClient testClientReset = new JerseyTestClient();
-                testClientReset.executeCall("http://localhost:8089/setStateFail");
+                testClient.executeCall("http://localhost:8089/setStateFail");
                 sleep(40000);
-                testClientReset.executeCall("http://localhost:8089/setStateStarted");
+                testClient.executeCall("http://localhost:8089/setStateStarted");
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -164,8 +718,7 @@ public class JerseyTestClientTest {
                 .handle(Exception.class)
                 .handleResultIf((Response result) -> result.getStatus() == 500)
                 .withMaxRetries(-1)
-                .withBackoff(1, 30, ChronoUnit.SECONDS)
-                .onRetry((x) -> out.println("Failure on thread " + currentThread().getName() + ". Retry: " + x.getAttemptCount()));
+                .withBackoff(1, 30, ChronoUnit.SECONDS);
 
     }
 
@@ -179,10 +732,15 @@ public class JerseyTestClientTest {
         return new CircuitBreaker<Response>()
                 .withFailureThreshold(2, 3)
                 .handleResultIf((Response response) -> response.getStatus() == 500)
-                .withDelay(Duration.ofSeconds(10))
-                .onOpen(() -> out.println("Circuit was open due to multiple errors."))
-                .onHalfOpen(() -> out.println("Circuit is not half open. Retrying to get data from service."))
-                .onClose(() -> out.println("Circuit is closed again. Continuing normal operation..."));
+                .withDelay(Duration.ofSeconds(10));
     }
 
-}
\ No newline at end of file
+
+    /**
+     * Entity of the JSON endpoint.
+     */
+    public static class Message {
+
+        public String message;
+    }
+}
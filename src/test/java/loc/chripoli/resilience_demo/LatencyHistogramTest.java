@@ -0,0 +1,88 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test class for the LatencyHistogram.
+ *
+ * @author chripoli
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Bucket boundaries are contiguous and every value falls into the bucket covering it.
+     */
+    @Test
+    public void testBucketBoundaries() {
+        for (long value : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            final int index = LatencyHistogram.indexOf(value);
+            assertTrue(LatencyHistogram.lowestValueOf(index) <= value);
+            assertTrue(LatencyHistogram.highestValueOf(index) >= value);
+        }
+        for (int index = 1; index <= LatencyHistogram.indexOf(Long.MAX_VALUE); index++) {
+            assertEquals(LatencyHistogram.highestValueOf(index - 1) + 1, LatencyHistogram.lowestValueOf(index));
+        }
+    }
+
+    /**
+     * Percentiles are reported within the relative error of the buckets.
+     */
+    @Test
+    public void testValueAtPercentile() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_000, histogram.getValueAtPercentile(0.5), 500_000 * 0.125);
+        assertEquals(950_000, histogram.getValueAtPercentile(0.95), 950_000 * 0.125);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(1), 1_000_000 * 0.125);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(0.99));
+    }
+
+    /**
+     * Values recorded by many threads end up in one snapshot, and snapshots of several histograms merge.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testConcurrentRecordingAndMerge() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram(4);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(1000);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(80_000, snapshot.getCount());
+        assertEquals(80_000_000, snapshot.getSum());
+        assertEquals(0, snapshot.getCountAtOrBelow(900));
+        assertEquals(80_000, snapshot.getCountAtOrBelow(1000));
+
+        final LatencyHistogram other = new LatencyHistogram(1);
+        other.record(1_000_000);
+        final LatencyHistogram.Snapshot merged = snapshot.merge(other.snapshot());
+        assertEquals(80_001, merged.getCount());
+        assertEquals(1000, merged.getValueAtPercentile(0.5), 1000 * 0.125);
+        assertEquals(1_000_000, merged.getValueAtPercentile(1), 1_000_000 * 0.125);
+    }
+}
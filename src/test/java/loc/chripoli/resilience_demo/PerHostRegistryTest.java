@@ -0,0 +1,118 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the PerHostRegistry.
+ *
+ * @author chripoli
+ */
+public class PerHostRegistryTest {
+
+    /**
+     * Instances are created once per host.
+     */
+    @Test
+    public void testCreatesOncePerHost() {
+        final AtomicInteger created = new AtomicInteger();
+        final PerHostRegistry<Integer> registry = new PerHostRegistry<>(host -> created.incrementAndGet());
+
+        assertEquals(Integer.valueOf(1), registry.get("a:80"));
+        assertEquals(Integer.valueOf(1), registry.get("a:80"));
+        assertEquals(Integer.valueOf(2), registry.get("b:80"));
+        assertEquals(2, registry.size());
+    }
+
+    /**
+     * Beyond the maximum size, the least recently used entries are evicted.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsedBeyondMaximumSize() {
+        final PerHostRegistry<String> registry = new PerHostRegistry<String>(host -> host).withMaximumSize(100);
+
+        for (int i = 0; i < 1000; i++) {
+            registry.get("host-" + i + ":80");
+        }
+
+        assertTrue(registry.size() <= 100);
+        assertTrue(registry.asMap().containsKey("host-999:80"));
+        assertTrue(registry.getEvictionCount() >= 900);
+    }
+
+    /**
+     * Idle entries are evicted unless the eviction filter keeps them.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testEvictsIdleEntries() throws InterruptedException {
+        final AtomicBoolean keep = new AtomicBoolean(true);
+        final PerHostRegistry<String> registry = new PerHostRegistry<String>(host -> host)
+                .withExpireAfterAccess(Duration.ofMillis(50))
+                .withEvictionFilter(host -> !host.startsWith("open") || !keep.get());
+
+        registry.get("idle:80");
+        registry.get("open:80");
+        Thread.sleep(100);
+        registry.evictIdle();
+
+        assertEquals(1, registry.size());
+        assertTrue(registry.asMap().containsKey("open:80"));
+
+        keep.set(false);
+        registry.evictIdle();
+        assertEquals(0, registry.size());
+    }
+
+    /**
+     * A guard is not evicted while one of its permits is in flight, so the host keeps a single bulkhead.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testKeepsGuardsWithPermitsInFlight() throws InterruptedException {
+        final PerHostGuard<Bulkhead> guard = new PerHostGuard<>(host -> new Bulkhead(1));
+        guard.getRegistry().withExpireAfterAccess(Duration.ofMillis(50));
+
+        final AttemptGuard.Permit permit = guard.acquire("a:80", 1);
+        Thread.sleep(100);
+        guard.getRegistry().evictIdle();
+        assertEquals(1, guard.getRegistry().size());
+        try {
+            guard.acquire("a:80", 1);
+            fail("Expected BulkheadFullException");
+        } catch (BulkheadFullException e) {
+            assertEquals(1, guard.getRegistry().get("a:80").getRejectedCount());
+        }
+
+        permit.release(null, null, 0);
+        Thread.sleep(100);
+        guard.getRegistry().evictIdle();
+        assertEquals(0, guard.getRegistry().size());
+    }
+
+    /**
+     * An entry inserted beyond the maximum size can be leased although all other entries are leased.
+     */
+    @Test
+    public void testLeasesInsertedEntryBeyondMaximumSize() {
+        final PerHostRegistry<Object> registry = new PerHostRegistry<>(host -> new Object()).withMaximumSize(1);
+
+        final PerHostRegistry.Entry<Object> a = registry.lease("a:80");
+        final PerHostRegistry.Entry<Object> b = registry.lease("b:80");
+        assertEquals(2, registry.size());
+
+        a.release();
+        b.release();
+        registry.lease("c:80").release();
+        assertEquals(1, registry.size());
+    }
+}
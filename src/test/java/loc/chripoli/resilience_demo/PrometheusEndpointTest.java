@@ -0,0 +1,53 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the PrometheusEndpoint.
+ *
+ * @author chripoli
+ */
+public class PrometheusEndpointTest {
+
+    /**
+     * The endpoint serves counters, cumulative histogram buckets and breaker states in the exposition format.
+     *
+     * @throws IOException
+     *          if the endpoint could not be started
+     */
+    @Test
+    public void testScrape() throws IOException {
+        final ResilienceMetrics metrics = new ResilienceMetrics();
+        metrics.instrument("a:80", new CircuitBreaker<Response>()).open();
+        metrics.acquire("a:80", 1).release(Response.ok().build(), null, TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.acquire("a:80", 2).release(null, new IOException(), TimeUnit.MILLISECONDS.toNanos(200));
+
+        try (PrometheusEndpoint endpoint = new PrometheusEndpoint(metrics, new InetSocketAddress("localhost", 0));
+             JerseyTestClient client = new JerseyTestClient()) {
+            final Response response = client.executeCall("http://localhost:" + endpoint.getPort() + PrometheusEndpoint.PATH);
+            assertEquals(200, response.getStatus());
+            assertTrue(response.getHeaderString("Content-Type").startsWith("text/plain; version=0.0.4"));
+
+            final String text = response.readEntity(String.class);
+            assertTrue(text.contains("# TYPE resilience_attempts_total counter\nresilience_attempts_total{host=\"a:80\"} 2\n"));
+            assertTrue(text.contains("resilience_retries_total{host=\"a:80\"} 1\n"));
+            assertTrue(text.contains("resilience_failures_total{host=\"a:80\"} 1\n"));
+            assertTrue(text.contains("resilience_attempt_duration_seconds_bucket{host=\"a:80\",le=\"0.001\"} 0\n"));
+            assertTrue(text.contains("resilience_attempt_duration_seconds_bucket{host=\"a:80\",le=\"0.005\"} 1\n"));
+            assertTrue(text.contains("resilience_attempt_duration_seconds_bucket{host=\"a:80\",le=\"0.25\"} 2\n"));
+            assertTrue(text.contains("resilience_attempt_duration_seconds_bucket{host=\"a:80\",le=\"+Inf\"} 2\n"));
+            assertTrue(text.contains("resilience_attempt_duration_seconds_count{host=\"a:80\"} 2\n"));
+            assertTrue(text.contains("resilience_circuit_breaker_state{name=\"a:80\",state=\"open\"} 1\n"));
+            assertTrue(text.contains("resilience_circuit_breaker_state{name=\"a:80\",state=\"closed\"} 0\n"));
+            assertTrue(text.contains("resilience_circuit_breaker_transitions_total{name=\"a:80\",state=\"open\"} 1\n"));
+        }
+    }
+}
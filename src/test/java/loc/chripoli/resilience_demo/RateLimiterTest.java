@@ -0,0 +1,115 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the RateLimiter.
+ *
+ * @author chripoli
+ */
+public class RateLimiterTest {
+
+    private static final String HOST = "localhost:8089";
+
+    /**
+     * A bursty limiter lets a full burst pass at once and rejects the next permit.
+     */
+    @Test
+    public void testBurstyAllowsBurst() {
+        final RateLimiter rateLimiter = RateLimiter.bursty(1, 5);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(rateLimiter.tryAcquire());
+        }
+        assertFalse(rateLimiter.tryAcquire());
+        assertEquals(5, rateLimiter.getPermittedCount());
+        assertEquals(1, rateLimiter.getRejectedCount());
+    }
+
+    /**
+     * A smooth limiter does not save up permits.
+     */
+    @Test(expected = RateLimitExceededException.class)
+    public void testSmoothRejectsSecondPermit() throws InterruptedException {
+        final RateLimiter rateLimiter = RateLimiter.smooth(1);
+
+        rateLimiter.acquire(HOST, 1);
+        rateLimiter.acquire(HOST, 1);
+    }
+
+    /**
+     * The rejection reports rates below one call per second as configured.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testRejectionReportsFractionalRate() throws InterruptedException {
+        final RateLimiter rateLimiter = RateLimiter.smooth(0.5);
+        rateLimiter.acquire(HOST, 1);
+
+        try {
+            rateLimiter.acquire(HOST, 1);
+            fail("Expected RateLimitExceededException");
+        } catch (RateLimitExceededException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Rate limit of 0.5 calls/s exceeded"));
+        }
+    }
+
+    /**
+     * With a maximum wait, the next permit is reserved and waited for.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testWaitsForReservedPermit() throws InterruptedException {
+        final RateLimiter rateLimiter = RateLimiter.smooth(10).withMaxWait(Duration.ofSeconds(1));
+
+        final long start = System.nanoTime();
+        rateLimiter.acquire(HOST, 1);
+        rateLimiter.acquire(HOST, 1);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+        assertTrue(rateLimiter.getTotalWaitNanos() > 0);
+        assertFalse(rateLimiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Concurrent callers never get more permits than the bucket holds.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testConcurrentCallersShareBucket() throws InterruptedException {
+        final RateLimiter rateLimiter = RateLimiter.bursty(0.001, 1000);
+        final AtomicInteger permits = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            final Thread thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    if (rateLimiter.tryAcquire()) {
+                        permits.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1000, permits.get());
+    }
+}
@@ -0,0 +1,65 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import javax.ws.rs.core.Response;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the ResilienceMetricsJmx.
+ *
+ * @author chripoli
+ */
+public class ResilienceMetricsJmxTest {
+
+    /**
+     * Host counters, breaker states and latency percentiles can be read through the platform MBean server, and a breaker
+     * can be opened and closed through it.
+     *
+     * @throws Exception
+     *          if a JMX call failed
+     */
+    @Test
+    public void testAttributesAndOperations() throws Exception {
+        final ResilienceMetrics metrics = new ResilienceMetrics();
+        final CircuitBreaker<Response> circuitBreaker = metrics.instrument("a:80", new CircuitBreaker<>());
+        metrics.acquire("a:80", 1).release(Response.ok().build(), null, TimeUnit.MILLISECONDS.toNanos(8));
+        metrics.acquire("a:80", 2).release(Response.ok().build(), null, TimeUnit.MILLISECONDS.toNanos(8));
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = ResilienceMetricsJmx.register(metrics, "test");
+        try {
+            final TabularData hosts = (TabularData) server.getAttribute(name, "Hosts");
+            final CompositeData host = (CompositeData) hosts.get(new Object[]{"a:80"}).get("value");
+            assertEquals(2L, host.get("attempts"));
+            assertEquals(1L, host.get("retries"));
+            assertEquals(8.0, (Double) host.get("latencyP99Millis"), 1);
+
+            server.invoke(name, "forceOpen", new Object[]{"a:80"}, new String[]{String.class.getName()});
+            assertTrue(circuitBreaker.isOpen());
+            final TabularData breakers = (TabularData) server.getAttribute(name, "CircuitBreakers");
+            final CompositeData breaker = (CompositeData) breakers.get(new Object[]{"a:80"}).get("value");
+            assertEquals("OPEN", breaker.get("state"));
+            assertEquals(1L, breaker.get("timesOpened"));
+
+            server.invoke(name, "reset", new Object[]{"a:80"}, new String[]{String.class.getName()});
+            assertTrue(circuitBreaker.isClosed());
+            assertEquals(0, metrics.getBreakerMetrics().get("a:80").getTransitionCount(CircuitBreaker.State.OPEN));
+
+            final Object p50 = server.invoke(name, "latencyPercentileMillis", new Object[]{"a:80", 0.5},
+                    new String[]{String.class.getName(), double.class.getName()});
+            assertEquals(8.0, (Double) p50, 1);
+        } finally {
+            ResilienceMetricsJmx.unregister(name);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+}
@@ -0,0 +1,83 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.CircuitBreaker;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test class for the ResilienceMetrics.
+ *
+ * @author chripoli
+ */
+public class ResilienceMetricsTest {
+
+    /**
+     * Attempts are counted per host by outcome, and only the latencies of attempts actually sent are recorded.
+     */
+    @Test
+    public void testAttemptCounters() {
+        final ResilienceMetrics metrics = new ResilienceMetrics();
+
+        metrics.acquire("a:80", 1).release(Response.ok().build(), null, TimeUnit.MILLISECONDS.toNanos(10));
+        metrics.acquire("a:80", 1).release(Response.serverError().build(), null, TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.acquire("a:80", 2).release(null, new IOException(), TimeUnit.MILLISECONDS.toNanos(30));
+        metrics.acquire("a:80", 3).release(null, new BulkheadFullException("a:80", "full"), 0);
+        metrics.acquire("b:80", 1).release(Response.status(404).build(), null, 1);
+
+        final ResilienceMetrics.HostMetrics a = metrics.getHostMetrics().get("a:80");
+        assertEquals(4, a.getAttemptCount());
+        assertEquals(2, a.getRetryCount());
+        assertEquals(1, a.getSuccessCount());
+        assertEquals(2, a.getFailureCount());
+        assertEquals(1, a.getRejectedCount());
+        assertEquals(3, a.getLatencies().getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(30), a.getLatencies().getValueAtPercentile(1), TimeUnit.MILLISECONDS.toNanos(30) * 0.125);
+        assertEquals(1, metrics.getHostMetrics().get("b:80").getSuccessCount());
+    }
+
+    /**
+     * The metrics of a host are not dropped while one of its attempts is in flight, so its outcome is not lost.
+     */
+    @Test
+    public void testKeepsHostWithAttemptInFlight() {
+        final ResilienceMetrics metrics = new ResilienceMetrics().withMaximumSize(1);
+
+        final AttemptGuard.Permit permit = metrics.acquire("a:80", 1);
+        metrics.acquire("b:80", 1).release(Response.ok().build(), null, 1);
+        permit.release(Response.ok().build(), null, 1);
+
+        assertEquals(1, metrics.getHostMetrics().get("a:80").getAttemptCount());
+        assertEquals(1, metrics.getHostMetrics().get("a:80").getSuccessCount());
+    }
+
+    /**
+     * Transitions of an instrumented breaker are counted, and the time in state accumulates per state.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testBreakerTransitions() throws InterruptedException {
+        final ResilienceMetrics metrics = new ResilienceMetrics();
+        final CircuitBreaker<Response> circuitBreaker = metrics.instrument("a:80", new CircuitBreaker<>());
+        final ResilienceMetrics.BreakerMetrics breaker = metrics.getBreakerMetrics().get("a:80");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        circuitBreaker.open();
+        Thread.sleep(50);
+        circuitBreaker.halfOpen();
+        circuitBreaker.open();
+        circuitBreaker.close();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(2, breaker.getTransitionCount(CircuitBreaker.State.OPEN));
+        assertEquals(1, breaker.getTransitionCount(CircuitBreaker.State.HALF_OPEN));
+        assertEquals(1, breaker.getTransitionCount(CircuitBreaker.State.CLOSED));
+        assertTrue(breaker.getTimeInState(CircuitBreaker.State.OPEN).toMillis() >= 50);
+    }
+}
@@ -0,0 +1,148 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Test class for the ResponseCache.
+ *
+ * @author chripoli
+ */
+public class ResponseCacheTest {
+
+    private static final String URL = "http://localhost:8089/test";
+
+    /**
+     * A response with max-age is served until it expires, every hit being an own copy.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testMaxAge() throws InterruptedException {
+        final ResponseCache cache = new ResponseCache();
+
+        assertNull(cache.get(URL));
+        cache.put(URL, Response.ok("Result").header(HttpHeaders.CACHE_CONTROL, "max-age=1").build());
+
+        final Response hit = cache.get(URL);
+        assertEquals("Result", hit.readEntity(String.class));
+        hit.close();
+        assertEquals("Result", cache.get(URL).readEntity(String.class));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        Thread.sleep(1100);
+        assertNull(cache.get(URL));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    /**
+     * Freshness follows no-store, Expires, Age and the default TTL.
+     */
+    @Test
+    public void testFreshness() {
+        final ResponseCache cache = new ResponseCache().withDefaultTtl(Duration.ofSeconds(5));
+        final String inOneMinute = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(1));
+
+        assertTrue(cache.freshnessNanos(Response.ok().header(HttpHeaders.CACHE_CONTROL, "no-store").build()) <= 0);
+        assertTrue(cache.freshnessNanos(Response.ok().header(HttpHeaders.EXPIRES, "0").build()) <= 0);
+        assertEquals(Duration.ofSeconds(60).toNanos(), cache.freshnessNanos(Response.ok().header(HttpHeaders.EXPIRES, inOneMinute).build()), 2e9);
+        assertEquals(Duration.ofSeconds(50).toNanos(), cache.freshnessNanos(Response.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "max-age=60").header("Age", "10").build()));
+        assertEquals(Duration.ofSeconds(5).toNanos(), cache.freshnessNanos(Response.ok().build()));
+
+        cache.put(URL, Response.serverError().build());
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Beyond the size cap, the least recently used responses are evicted.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testSizeEviction() throws InterruptedException {
+        final ResponseCache cache = new ResponseCache().withMaximumSize(10).withDefaultTtl(Duration.ofMinutes(1));
+
+        for (int i = 0; i < 10; i++) {
+            cache.put(URL + i, Response.ok("Result").build());
+        }
+        Thread.sleep(20);
+        assertNotNull(cache.get(URL + 0));
+        cache.put(URL + 10, Response.ok("Result").build());
+
+        assertEquals(9, cache.size());
+        assertEquals(2, cache.getEvictionCount());
+        assertNotNull(cache.get(URL + 0));
+        assertNull(cache.get(URL + 1));
+    }
+
+    /**
+     * Beyond the weight cap, responses are evicted until the total weight fits again.
+     */
+    @Test
+    public void testWeightEviction() {
+        final ResponseCache cache = new ResponseCache().withMaximumWeight(1000).withDefaultTtl(Duration.ofMinutes(1));
+        final byte[] entity = new byte[300];
+
+        for (int i = 0; i < 4; i++) {
+            cache.put(URL + i, Response.ok(entity).build());
+        }
+
+        assertEquals(900, cache.getWeight());
+        assertEquals(1, cache.getEvictionCount());
+        cache.put(URL, Response.ok(new byte[2000]).build());
+        assertNull(cache.get(URL));
+    }
+
+    /**
+     * With stale-if-error, responses are kept beyond their freshness and served marked as stale.
+     */
+    @Test
+    public void testStaleIfError() {
+        final ResponseCache cache = new ResponseCache().withStaleIfError(Duration.ofMinutes(1));
+
+        cache.put(URL, Response.ok("Result").header(HttpHeaders.CACHE_CONTROL, "no-cache").build());
+        cache.put(URL + 1, Response.ok("Result").header(HttpHeaders.CACHE_CONTROL, "no-store").build());
+        assertNull(cache.get(URL));
+        assertNull(cache.getStale(URL + 1));
+
+        final BufferedResponse stale = (BufferedResponse) cache.getStale(URL);
+        assertTrue(stale.isStale());
+        assertEquals("Result", stale.readEntity(String.class));
+        assertTrue(stale.getHeaderString("Warning").startsWith("110"));
+        assertEquals(1, cache.getStaleHitCount());
+
+        cache.put(URL, stale);
+        assertNull(cache.get(URL));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Error statuses are served while fresh but never as stale fallback, responses with Vary are not stored.
+     */
+    @Test
+    public void testErrorStatusesAndVary() {
+        final ResponseCache cache = new ResponseCache().withStaleIfError(Duration.ofMinutes(1));
+
+        cache.put(URL, Response.status(404).header(HttpHeaders.CACHE_CONTROL, "max-age=60").build());
+        assertEquals(404, cache.get(URL).getStatus());
+        assertNull(cache.getStale(URL));
+
+        cache.put(URL + 1, Response.ok("Result").header(HttpHeaders.CACHE_CONTROL, "max-age=60").header(HttpHeaders.VARY, "Accept").build());
+        assertNull(cache.get(URL + 1));
+        assertNull(cache.getStale(URL + 1));
+        assertEquals(1, cache.size());
+    }
+}
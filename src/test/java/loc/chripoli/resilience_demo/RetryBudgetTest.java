@@ -0,0 +1,92 @@
+package loc.chripoli.resilience_demo;
+
+import net.jodah.failsafe.RetryPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+
+/**
+ * Test class for the RetryBudget.
+ *
+ * @author chripoli
+ */
+public class RetryBudgetTest {
+
+    private static final String HOST = "localhost:8089";
+    private static final Response OK = Response.ok().build();
+    private static final Response ERROR = Response.serverError().build();
+
+    /**
+     * Retries are admitted up to the ratio of successful attempts, first attempts always.
+     */
+    @Test
+    public void testRetriesLimitedToRatioOfSuccesses() {
+        final RetryBudget budget = new RetryBudget(0.5, 0);
+
+        for (int i = 0; i < 10; i++) {
+            budget.acquire(HOST, 1).release(OK, null, 0);
+        }
+        budget.acquire(HOST, 1).release(ERROR, null, 0);
+        assertEquals(5, budget.getAvailableRetries());
+
+        for (int i = 0; i < 5; i++) {
+            budget.acquire(HOST, 2).release(ERROR, null, 0);
+        }
+        try {
+            budget.acquire(HOST, 2);
+            fail("Expected RetryBudgetExhaustedException");
+        } catch (RetryBudgetExhaustedException e) {
+            assertEquals(HOST, e.getHost());
+        }
+        budget.acquire(HOST, 1).release(ERROR, null, 0);
+
+        assertEquals(5, budget.getPermittedRetryCount());
+        assertEquals(1, budget.getDeniedRetryCount());
+    }
+
+    /**
+     * Without successes, the reserve per second still admits a few retries; a retry rejected by another guard is
+     * handed back.
+     */
+    @Test
+    public void testReserveAndRefund() {
+        final RetryBudget budget = new RetryBudget(0.2, 1, Duration.ofSeconds(3), 3);
+
+        budget.acquire(HOST, 2).release(null, new BulkheadFullException(HOST, "Bulkhead full"), 0);
+        for (int i = 0; i < 3; i++) {
+            budget.acquire(HOST, 2).release(null, new IllegalStateException(), 0);
+        }
+        assertEquals(0, budget.getAvailableRetries());
+        assertEquals(3, budget.getPermittedRetryCount());
+    }
+
+    /**
+     * A retry handed back after its bucket left the window does not credit the current bucket.
+     */
+    @Test
+    public void testRefundAfterBucketExpired() throws InterruptedException {
+        final RetryBudget budget = new RetryBudget(0, 20, Duration.ofMillis(100), 2);
+
+        final AttemptGuard.Permit permit = budget.acquire(HOST, 2);
+        assertEquals(1, budget.getAvailableRetries());
+        Thread.sleep(150);
+        permit.release(null, new BulkheadFullException(HOST, "Bulkhead full"), 0);
+
+        assertEquals(2, budget.getAvailableRetries());
+        assertEquals(0, budget.getPermittedRetryCount());
+    }
+
+    /**
+     * The retry policy is configured to give up on an exhausted budget.
+     */
+    @Test
+    public void testAbortOnExhaustion() {
+        final RetryPolicy<Response> retryPolicy = new RetryPolicy<>();
+
+        assertSame(retryPolicy, RetryBudget.abortOnExhaustion(retryPolicy));
+        assertTrue(retryPolicy.isAbortable(null, new RetryBudgetExhaustedException(HOST, "Retry budget exhausted")));
+    }
+}
@@ -0,0 +1,199 @@
+package loc.chripoli.resilience_demo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.Response;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the SlidingWindowCircuitBreaker.
+ *
+ * @author chripoli
+ */
+public class SlidingWindowCircuitBreakerTest {
+
+    private static final String HOST = "localhost:8089";
+    private static final Response OK = Response.ok().build();
+    private static final Response ERROR = Response.serverError().build();
+
+    /**
+     * The breaker stays closed below the minimum throughput and opens once the failure rate is reached.
+     */
+    @Test
+    public void testOpensOnFailureRateAboveMinimumThroughput() {
+        final SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker()
+                .withFailureRateThreshold(0.5, 10);
+
+        for (int i = 0; i < 5; i++) {
+            breaker.acquire(HOST, 1).release(ERROR, null, 0);
+        }
+        assertTrue(breaker.isClosed());
+
+        for (int i = 0; i < 4; i++) {
+            breaker.acquire(HOST, 1).release(OK, null, 0);
+        }
+        assertTrue(breaker.isClosed());
+
+        breaker.acquire(HOST, 1).release(null, new IllegalStateException(), 0);
+        assertTrue(breaker.isOpen());
+        assertEquals(0.6, breaker.getFailureRate(), 0.001);
+
+        try {
+            breaker.acquire(HOST, 1);
+            fail("Expected CallNotPermittedException");
+        } catch (CallNotPermittedException e) {
+            assertEquals(1, breaker.getRejectedCount());
+        }
+    }
+
+    /**
+     * Outcomes older than the window are no longer taken into account.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testWindowSlides() throws InterruptedException {
+        final SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker(Duration.ofMillis(200), 4)
+                .withFailureRateThreshold(0.5, 2);
+
+        breaker.acquire(HOST, 1).release(ERROR, null, 0);
+        assertEquals(1, breaker.getWindowCallCount());
+        Thread.sleep(300);
+        assertEquals(0, breaker.getWindowCallCount());
+
+        breaker.acquire(HOST, 1).release(OK, null, 0);
+        breaker.acquire(HOST, 1).release(OK, null, 0);
+        breaker.acquire(HOST, 1).release(ERROR, null, 0);
+        assertTrue(breaker.isClosed());
+    }
+
+    /**
+     * After the delay, trial attempts close the breaker if all of them succeed and reopen it on a failure.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testHalfOpenTrials() throws InterruptedException {
+        final SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker()
+                .withDelay(Duration.ofMillis(50))
+                .withTrialPermits(2);
+        breaker.open();
+        Thread.sleep(100);
+
+        final AttemptGuard.Permit first = breaker.acquire(HOST, 1);
+        final AttemptGuard.Permit second = breaker.acquire(HOST, 1);
+        assertEquals(SlidingWindowCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.acquire(HOST, 1);
+            fail("Expected CallNotPermittedException");
+        } catch (CallNotPermittedException e) {
+            // only two trial attempts
+        }
+
+        first.release(OK, null, 0);
+        second.release(ERROR, null, 0);
+        assertTrue(breaker.isOpen());
+
+        Thread.sleep(100);
+        breaker.acquire(HOST, 1).release(OK, null, 0);
+        breaker.acquire(HOST, 1).release(OK, null, 0);
+        assertTrue(breaker.isClosed());
+        assertEquals(0, breaker.getWindowCallCount());
+    }
+
+    /**
+     * Successful but slow attempts open the breaker once the slow call rate is reached, independent of the failure rate.
+     */
+    @Test
+    public void testOpensOnSlowCallRate() {
+        final long slow = TimeUnit.SECONDS.toNanos(20);
+        final long fast = TimeUnit.MILLISECONDS.toNanos(10);
+        final SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker()
+                .withFailureRateThreshold(0.5, 10)
+                .withSlowCallRateThreshold(Duration.ofSeconds(1), 0.8);
+
+        for (int i = 0; i < 3; i++) {
+            breaker.acquire(HOST, 1).release(OK, null, fast);
+        }
+        for (int i = 0; i < 6; i++) {
+            breaker.acquire(HOST, 1).release(OK, null, slow);
+        }
+        assertTrue(breaker.isClosed());
+
+        breaker.acquire(HOST, 1).release(OK, null, slow);
+        assertTrue(breaker.isClosed());
+        assertEquals(0.7, breaker.getSlowCallRate(), 0.001);
+
+        for (int i = 0; i < 5; i++) {
+            breaker.acquire(HOST, 1).release(OK, null, slow);
+        }
+        assertTrue(breaker.isOpen());
+        assertEquals(0, breaker.getFailureRate(), 0.001);
+    }
+
+    /**
+     * A slow trial attempt reopens the breaker like a failed one.
+     */
+    @Test
+    public void testSlowTrialReopens() {
+        final SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker()
+                .withSlowCallRateThreshold(Duration.ofSeconds(1), 0.5)
+                .withTrialPermits(1);
+        breaker.halfOpen();
+
+        breaker.acquire(HOST, 1).release(OK, null, TimeUnit.SECONDS.toNanos(2));
+        assertTrue(breaker.isOpen());
+    }
+
+    /**
+     * Threads racing for the half-open transition get exactly the configured number of trial permits between them,
+     * and the transition is performed and reported once.
+     *
+     * @throws InterruptedException
+     *          InterruptedException
+     */
+    @Test
+    public void testConcurrentHalfOpenTransition() throws InterruptedException {
+        final AtomicInteger halfOpenEvents = new AtomicInteger();
+        final SlidingWindowCircuitBreaker breaker = new SlidingWindowCircuitBreaker()
+                .withDelay(Duration.ofMillis(50))
+                .withTrialPermits(3)
+                .onHalfOpen(halfOpenEvents::incrementAndGet);
+        breaker.open();
+        Thread.sleep(100);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger permits = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    breaker.acquire(HOST, 1);
+                    permits.incrementAndGet();
+                } catch (CallNotPermittedException | InterruptedException e) {
+                    // no trial permit left
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(3, permits.get());
+        assertEquals(1, halfOpenEvents.get());
+        assertEquals(29, breaker.getRejectedCount());
+    }
+}
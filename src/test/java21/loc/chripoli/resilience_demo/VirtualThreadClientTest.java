@@ -0,0 +1,187 @@
+package loc.chripoli.resilience_demo;
+
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import net.jodah.failsafe.CircuitBreaker;
+import net.jodah.failsafe.RetryPolicy;
+import org.junit.*;
+
+import static java.lang.Thread.*;
+import static org.junit.Assert.*;
+
+import javax.ws.rs.core.Response;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the VirtualThreadClient.
+ * Scales the resilience test of {@link JerseyTestClientTest} to ten thousand concurrent calls.
+ *
+ * @author chripoli
+ */
+public class VirtualThreadClientTest {
+
+    /**
+     * Number of calls submitted at once, each running on its own virtual thread.
+     */
+    public final int numberOfCalls = 10000;
+
+    /**
+     * Size of the connection pool, which bounds the attempts in flight.
+     */
+    public final int maxConnections = 50;
+
+    /**
+     * Upper bound of additional platform threads while all callers are in flight.
+     */
+    public final int maxAdditionalPlatformThreads = 100;
+
+    /**
+     * WireMock rule
+     */
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(new WireMockConfiguration().port(8090).containerThreads(50));
+
+    private JerseyTestClient testClient;
+    private VirtualThreadClient virtualThreadClient;
+
+    /**
+     * Setup before the test.
+     * Initialization of WireMock stubs, see {@link JerseyTestClientTest#setup()}.
+     */
+    @Before
+    public void setup() {
+        testClient = new JerseyTestClient(new ConnectionPoolConfig().withMaxTotal(maxConnections).withMaxPerRoute(maxConnections));
+        virtualThreadClient = new VirtualThreadClient(testClient);
+
+        WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/test"))
+                .inScenario("Retry-Scenario")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withBody("Result")));
+
+        WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/test"))
+                .inScenario("Retry-Scenario")
+                .whenScenarioStateIs("Fail State")
+                .willReturn(WireMock.aResponse()
+                        .withStatus(500)));
+
+        WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/setStateFail"))
+                .inScenario("Retry-Scenario")
+                .willSetStateTo("Fail State")
+                .willReturn(WireMock.aResponse().withStatus(200)));
+
+        WireMock.stubFor(WireMock.get(WireMock.urlEqualTo("/setStateStarted"))
+                .inScenario("Retry-Scenario")
+                .willSetStateTo(Scenario.STARTED)
+                .willReturn(WireMock.aResponse().withStatus(200)));
+    }
+
+    /**
+     * Closes the execution mode and the client.
+     */
+    @After
+    public void tearDown() {
+        virtualThreadClient.close();
+        testClient.close();
+    }
+
+    /**
+     * Submits ten thousand resilient calls from the platform test thread through a short service outage, split over
+     * two execution modes of the same client. All of them have to pass with as many attempts in flight at once as the
+     * pool has connections, and every attempt has to run on a virtual thread of the execution mode, while the number of
+     * platform (carrier) threads stays flat.
+     *
+     * @throws Exception
+     *          if a call failed or did not complete in time
+     */
+    @Test
+    public void testSubmitCallOnVirtualThreads() throws Exception {
+
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        final int platformThreadsBefore = threadMXBean.getThreadCount();
+        threadMXBean.resetPeakThreadCount();
+
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger platformAttempts = new AtomicInteger();
+        testClient.withGuard((host, attempt) -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            if (!currentThread().isVirtual()) {
+                platformAttempts.incrementAndGet();
+            }
+            return (response, failure, latencyNanos) -> inFlight.decrementAndGet();
+        });
+
+        final RetryPolicy<Response> retryPolicy = getRetryPolicy();
+        final CircuitBreaker<Response> circuitBreaker = getCircuitBreaker();
+        assertEquals(200, virtualThreadClient.executeCall("http://localhost:8090/test", retryPolicy, circuitBreaker).getStatus());
+
+        final Thread stateChanger = ofPlatform().start(() -> {
+            try {
+                sleep(200);
+                testClient.executeCall("http://localhost:8090/setStateFail");
+                sleep(3000);
+                testClient.executeCall("http://localhost:8090/setStateStarted");
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+
+        final List<CompletableFuture<Response>> futures = new ArrayList<>();
+        try (VirtualThreadClient secondClient = new VirtualThreadClient(testClient)) {
+            for (int i = 0; i < numberOfCalls; i++) {
+                final VirtualThreadClient executionMode = i % 2 == 0 ? virtualThreadClient : secondClient;
+                futures.add(executionMode.submitCall("http://localhost:8090/test", retryPolicy, circuitBreaker));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+        }
+        stateChanger.join();
+
+        for (CompletableFuture<Response> future : futures) {
+            assertEquals(200, future.join().getStatus());
+        }
+        assertEquals(0, platformAttempts.get());
+        assertEquals(maxConnections, maxInFlight.get());
+        assertTrue("Platform threads grew from " + platformThreadsBefore + " to " + threadMXBean.getPeakThreadCount(),
+                threadMXBean.getPeakThreadCount() - platformThreadsBefore < maxAdditionalPlatformThreads);
+
+    }
+
+    /**
+     * Get the retry policy for the test.
+     * Same as {@link JerseyTestClientTest}, but with a shorter backoff to keep the test fast.
+     *
+     * @return RetryPolicy
+     */
+    private RetryPolicy<Response> getRetryPolicy() {
+        return new RetryPolicy<Response>()
+                .handle(Exception.class)
+                .handleResultIf((Response result) -> result.getStatus() == 500)
+                .withMaxRetries(-1)
+                .withBackoff(100, 2000, ChronoUnit.MILLIS);
+    }
+
+    /**
+     * Gets the CircuitBreaker for the test.
+     *
+     * @return CircuitBreaker
+     */
+    private CircuitBreaker<Response> getCircuitBreaker() {
+        return new CircuitBreaker<Response>()
+                .withFailureThreshold(2, 3)
+                .handleResultIf((Response response) -> response.getStatus() == 500)
+                .withDelay(Duration.ofSeconds(1));
+    }
+
+}